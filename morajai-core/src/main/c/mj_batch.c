@@ -0,0 +1,34 @@
+// Batch successor entry point for MJNativeSuccessors, built on the simulator's
+// rules in morajai-simulator/src/main/c/morajai.c (compiled with -DMORAJAI_STATE=_Thread_local)
+
+#include <stdint.h>
+#include "morajai.h"
+
+static const int32_t POW10[9] = {1, 10, 100, 1000, 10000, 100000, 1000000, 10000000, 100000000};
+
+// For each of count decimal state indices, write the 9 successor indices to
+// out[n * 9 + tile], matching MoraJaiBox.successors
+void mj_batch_successors(const int32_t* states, int32_t count, int32_t* out) {
+	color_t targets[4] = {C_GY, C_GY, C_GY, C_GY};
+	color_t tiles[9];
+
+	for (int32_t n = 0; n < count; n++) {
+		int32_t state = states[n];
+		for (int i = 0; i < 9; i++) {
+			tiles[i] = (color_t)(state % 10);
+			state /= 10;
+		}
+
+		for (uint8_t tile = 0; tile < 9; tile++) {
+			// init resets the outers, so press_tile never sees a solved box
+			init(targets, tiles);
+			press_tile(tile);
+
+			int32_t next = 0;
+			for (uint8_t i = 0; i < 9; i++) {
+				next += (int32_t)get_tile_color(i) * POW10[i];
+			}
+			out[n * 9 + tile] = next;
+		}
+	}
+}
@@ -1,7 +1,7 @@
 package io.chandler.morajai;
 
 import io.chandler.morajai.MoraJaiBox.Color;
-import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 
 import static io.chandler.morajai.MoraJaiBox.Color.*;
 
@@ -21,8 +21,10 @@ import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
 import com.googlecode.lanterna.TerminalSize;
@@ -41,22 +43,122 @@ public class MJAnalysis {
 
 	private final boolean noBlue;
 	private final Color[] targetColors;
-	private final ThreadLocal<MoraJaiBox> threadLocalBox = ThreadLocal.withInitial(MoraJaiBox::new);
+	private final StateIndex index;
+
+	// Unreached states gathered per batch successor call
+	private static final int BATCH_SIZE = 1024;
+	// Larger blocks give the region-ordered lookup several hits per 64 KB region
+	private static final int SORTED_BATCH_SIZE = 16384;
+
+	// Resolve successor depths through MJSuccessorLookup in memory order instead of generation order
+	public static boolean SORTED_LOOKUPS = false;
+
+	// Solve closed color multiset classes up front with MJClosedClasses
+	public static boolean CLOSED_CLASSES = true;
+
+	// Directory holding the MJCondensation files, or null to find dead states in the scan only
+	public static Path SCC_DIR = null;
+
+	// Expand a level top-down with MJTopDown while the frontier is under 1 / TOP_DOWN_ALPHA of the unreached states, 0 to always scan
+	public static int TOP_DOWN_ALPHA = 16;
+	// Largest frontier kept as a list for the top-down check
+	private static final int TOP_DOWN_MAX_FRONTIER = 1 << 24;
+
+	// Scan a compacted list of the unreached states once they fall under this fraction of the scanned range, 0 to always scan the index
+	public static double WORKLIST_FRACTION = 0.125;
+
+	// Track depths in 2 bits per state with MJPackedDepthTracker, keeping finished levels on disk; skips the closed classes
+	public static boolean PACKED_DEPTHS = false;
+
+	// Where the byte depth trackers live: "heap", "offheap" for a direct buffer, "file" to map a file in the storage directory,
+	// or "paged" for MJPagedDepthTracker
+	public static String DEPTH_BACKING = "heap";
+
+	// Stop after this depth and skip the backtracking, keeping only the visited set and one level in memory, 0 for the full analysis
+	public static int MAX_DEPTH = 0;
 
 	private int threads = 17;
 
+	// Chunks per thread for the worklist compaction
+	private static final int COMPACT_CHUNKS_PER_THREAD = 8;
+
+	// Results of one worker thread's scan, reused across levels so the level commit allocates nothing
+	private static class ScanResult {
+		final IntArrayList found = new IntArrayList();
+		final IntArrayList dead = new IntArrayList();
+	}
+
+	// Per-thread block buffers for resolveBlock
+	private static class ScanBuffers {
+		final int[] block;
+		final int[] blockIndex;
+		final int[] successors;
+		final int[] answers;
+
+		ScanBuffers(int batchSize, boolean sorted) {
+			block = new int[batchSize];
+			blockIndex = new int[batchSize];
+			successors = new int[batchSize * 9];
+			answers = sorted ? new int[batchSize * 9] : null;
+		}
+	}
+
 	private final Path storageDir;
 
+	// Indexed by StateIndex position, which is the decimal state for the full palette
 	static class DepthTracker {
 		final byte[] depths;
+		final StateIndex index;
 
 		static final byte UNREACHED = -1;
 		static final byte DEAD = -2;
 
 		DepthTracker() {
-			depths = new byte[1000000000];
+			this(StateIndex.FULL);
+		}
+
+		DepthTracker(StateIndex index) {
+			this(index, new byte[index.size()]);
 			Arrays.fill(depths, UNREACHED);
 		}
+
+		// For other encodings, which override every accessor
+		DepthTracker(StateIndex index, byte[] depths) {
+			this.index = index;
+			this.depths = depths;
+		}
+
+		/**
+		 * A tracker on the DEPTH_BACKING storage
+		 * @param file Mapped in "file" mode, deleted by close
+		 */
+		static DepthTracker create(StateIndex index, Path file) throws IOException {
+			switch (DEPTH_BACKING) {
+				case "heap": return new DepthTracker(index, MJBufferPool.SHARED.bytes(index.size(), UNREACHED));
+				case "offheap": return new MJBufferDepthTracker(index, null);
+				case "file": return new MJBufferDepthTracker(index, file);
+				case "paged": return new MJPagedDepthTracker(index);
+				default: throw new IllegalArgumentException("Unknown depth backing " + DEPTH_BACKING);
+			}
+		}
+
+		// Returns the storage to MJBufferPool, or releases it if outside the heap; the tracker can't be used after
+		void close() throws IOException {
+			if (depths != null) MJBufferPool.SHARED.release(depths);
+		}
+
+		// Marks every state in the set dead; blocks are marked in parallel
+		void markDead(ExecutorService executor, MJIntSet states) {
+			states.forEach(executor, this::markDead);
+		}
+
+		// Called between levels, while no thread reads or writes, to shrink storage that allows it
+		void compact(ExecutorService executor) {
+		}
+
+		public int size() {
+			return index.size();
+		}
 		
 		public int getDepth(int state) {
 			byte result = depths[state];
@@ -78,9 +180,14 @@ public class MJAnalysis {
 	}
 
 	public MJAnalysis(Path storageDir, Color[] targetColors, boolean noBlue) {
+		this(storageDir, targetColors, noBlue, StateIndex.forNoBlue(noBlue));
+	}
+
+	MJAnalysis(Path storageDir, Color[] targetColors, boolean noBlue, StateIndex index) {
 		this.targetColors = targetColors;
 		this.noBlue = noBlue;
 		this.storageDir = storageDir;
+		this.index = index;
 	}
 
 	public MJAnalysis setThreads(int threads) {
@@ -107,18 +214,40 @@ public class MJAnalysis {
 		}
 		MJAnalysisStats stats = new MJAnalysisStats(idx, filename);
 		statsUpdate.accept(stats);
+
+		if (MAX_DEPTH > 0) {
+			boundedDepthAnalysis(idx, filename, stats, statsUpdate);
+			return;
+		}
+
+		ThreadLocal<MJBatchSuccessors> threadLocalBatch = ThreadLocal.withInitial(MJBatchSuccessors::create);
+		ThreadLocal<MJSuccessorLookup> threadLocalLookup = ThreadLocal.withInitial(MJSuccessorLookup::new);
+		ThreadLocal<ScanBuffers> threadLocalBuffers = ThreadLocal.withInitial(() -> new ScanBuffers(SORTED_LOOKUPS ? SORTED_BATCH_SIZE : BATCH_SIZE, SORTED_LOOKUPS));
+		List<ScanResult> scanResults = new ArrayList<>();
+		ThreadLocal<ScanResult> threadLocalResult = ThreadLocal.withInitial(() -> {
+			ScanResult result = new ScanResult();
+			synchronized (scanResults) {
+				scanResults.add(result);
+			}
+			return result;
+		});
 		
-		ExecutorService executor = Executors.newFixedThreadPool(threads); 
+		ForkJoinPool executor = new ForkJoinPool(threads);
+		MJLevelScheduler scheduler = new MJLevelScheduler(executor);
+		// Closed in the finally block however the analysis ends, returning pooled arrays to MJBufferPool
+		DepthTracker tracker = null;
+		MJDepthsBacktracker backtracker = null;
 		try (PrintStream out = new PrintStream(new File(storageDir.resolve("depths_v3_" + idx + filename + ".txt").toString()))) {
 			out.println("Starting analysis for " + idx + " " + filename + " with CPU - pruner: " + true);
 
-			MoraJaiBox box = new MoraJaiBox();
-			
-			DepthTracker depths = new DepthTracker();
+			MJPackedDepthTracker packed = PACKED_DEPTHS ? new MJPackedDepthTracker(index, storageDir.resolve("levels_" + idx + filename)) : null;
+			DepthTracker depths = packed != null ? packed : DepthTracker.create(index, storageDir.resolve("depths_" + idx + filename + ".bin"));
+			tracker = depths;
 
 			// Loop through and mark each zero state
 			int depth = 0;
-			int counter = generateDepth0(box, depths);
+			IntArrayList goals = new IntArrayList();
+			int counter = generateDepth0(depths, goals);
 			stats.begun = true;
 			stats.depth = 0;
 			stats.statesAtDepth = counter;
@@ -126,43 +255,53 @@ public class MJAnalysis {
 			statsUpdate.accept(stats);
 
 
-			int prunedDead = MJColorPrune.prune(executor, noBlue, targetColors, (states) -> {
-				synchronized (depths) {
-					for (int state : states) {
-						depths.markDead(state);
-					}
-				}
-			});
+			MJIntSet pruned = new MJIntSet(index.size());
+			int prunedDead = MJColorPrune.prune(executor, index, targetColors, pruned);
+			// A byte or an atomic 2-bit write per state, so the blocks mark their states without a lock
+			depths.markDead(executor, pruned);
+			// States solved ahead of the scan, added to each level's count
+			int[] closedCounts = new int[256];
+			IntArrayList[] closedStates = new IntArrayList[closedCounts.length];
+			// Closed classes are written ahead of their level, which the packed tracker can't hold
+			if (CLOSED_CLASSES && packed == null) {
+				prunedDead += MJClosedClasses.solve(executor, depths, closedCounts, closedStates, TOP_DOWN_MAX_FRONTIER);
+			} else {
+				for (int d = 0; d < closedStates.length; d++) closedStates[d] = new IntArrayList();
+			}
+			if (SCC_DIR != null) {
+				prunedDead += MJCondensation.markDead(SCC_DIR, executor, depths);
+			}
+
+			if (packed != null) packed.finishLevel(0);
+			depths.compact(executor);
+
 			stats.initalPruned = prunedDead;
 			stats.dead = prunedDead;
 			stats.pruning = false;
 			statsUpdate.accept(stats);
 			
-			Object monitor = new Object();
 			int counterAccum = 0;
 
-			while (counter > 0) {
-				counterAccum += counter;
+			// Ascending indices still to scan, a superset of the unreached states, or null for the whole index
+			int[] worklist = null;
 
-				int numChunks;
-				int remainingStates = 1_000_000_000 - prunedDead - counterAccum;
-				if (remainingStates > 600_000_000) {
-					numChunks = 200;
-				} else if (remainingStates > 400_000_000) {
-					numChunks = 128;
-				} else if (remainingStates > 200_000_000) {
-					numChunks = 100;
-				} else if (remainingStates > 100_000_000) {
-					numChunks = 64;
-				} else {
-					numChunks = 32;
-				}
+			// All states at the current depth while a list is kept, else null
+			IntArrayList frontier = new IntArrayList();
+			for (int i = 0; i < goals.size(); i++) {
+				// Goals stay at depth 0 through the pruning
+				if (depths.getDepth(goals.getInt(i)) == 0) frontier.add(goals.getInt(i));
+			}
 
-				int chunkSize = 1000000000 / numChunks;
+			while (counter > 0) {
+				counterAccum += counter;
 
-				int[] monitor_counter = new int[1];
-				int[] monitor_progressCount = new int[1];
+				int remainingStates = index.size() - prunedDead - counterAccum;
 
+				if (WORKLIST_FRACTION > 0 && remainingStates < (worklist == null ? index.size() : worklist.length) * WORKLIST_FRACTION) {
+					worklist = compactWorklist(executor, depths, worklist, threads * COMPACT_CHUNKS_PER_THREAD);
+				}
+				final int[] scanList = worklist;
+				final int scanSize = worklist == null ? index.size() : worklist.length;
 
 				stats.unreached = remainingStates;
 				stats.depth = depth;
@@ -179,109 +318,110 @@ public class MJAnalysis {
 				
 				// Capture depth in final variable for lambda
 				final int currentDepth = depth;
+				int closedCount = closedCounts[Math.min(currentDepth, closedCounts.length - 1)];
+				IntArrayList closedFrontier = closedStates[Math.min(currentDepth, closedStates.length - 1)];
+
+				if (frontier != null && TOP_DOWN_ALPHA > 0 && (long) frontier.size() * TOP_DOWN_ALPHA < remainingStates) {
+					// Small frontier: walk its predecessors instead of scanning every state
+					long scanStart = System.nanoTime();
+					IntArrayList found = MJTopDown.expand(executor, threads, depths, frontier, currentDepth);
+					long commitStart = System.nanoTime();
+					counter = found.size() + closedCount;
+					frontier = closedFrontier == null ? null : found;
+					if (frontier != null) frontier.addAll(closedFrontier);
+					if (packed != null) packed.finishLevel(currentDepth);
+					depths.compact(executor);
+					stats.scanMillis = (commitStart - scanStart) / 1000000;
+					stats.commitMillis = (System.nanoTime() - commitStart) / 1000000;
+					continue;
+				}
 				
-				List<Future<ArrayList<Integer>>> futures = new ArrayList<>();
-				IntOpenHashSet deadStates = new IntOpenHashSet();
-				
-				for (int worker = 0; worker < numChunks; worker++) {
-					int chunkIndex = worker;
-					Future<ArrayList<Integer>> future = executor.submit(() -> {
-						MoraJaiBox threadBox = threadLocalBox.get();
-						int startState = chunkIndex * chunkSize;
-						int endState = Math.min(startState + chunkSize, 1000000000);
-
-						ArrayList<Integer> states = new ArrayList<>();
-						ArrayList<Integer> localDeadStates = new ArrayList<>();
-
-						int localCounter = 0, localProgressCount = 0;
-
+				long scanStart = System.nanoTime();
+				synchronized (scanResults) {
+					for (ScanResult result : scanResults) {
+						result.found.clear();
+						result.dead.clear();
+					}
+				}
+				scheduler.run(scanSize, (start, end) -> {
+					MJBatchSuccessors batch = threadLocalBatch.get();
+					MJSuccessorLookup lookup = SORTED_LOOKUPS ? threadLocalLookup.get() : null;
+					ScanBuffers buffers = threadLocalBuffers.get();
+					ScanResult result = threadLocalResult.get();
+					int batchSize = buffers.block.length;
+
+					int blockCount = 0;
+					for (int p = start; p < end; p++) {
+						int state = scanList == null ? p : scanList[p];
+
+						// Already reached in minimum moves, or dead end
+						if (!depths.isUnreached(state)) continue;
 						
-						nextState: for (int state = startState; state < endState; state++) {
-							localProgressCount++;
-
-							// Already reached in minimum moves, or dead end
-							if (!depths.isUnreached(state)) continue;
-							
-							threadBox.initFromState(targetColors, state);
-							
-							boolean pathsRemain = false;
-							for (int i = 0; i < 9; i++) {
-								threadBox.pressTile(i);
-								int newState = threadBox.getState();
-								
-								if (depths.isUnreached(newState) && newState != state) {
-									pathsRemain = true;
-								}
-
-								if (depths.getDepth(newState) == currentDepth - 1) { // Found a path to the previous depth
-									states.add(state);
-									localCounter++;
-									continue nextState;
-								}
-								threadBox.reset();
-							}
-
-							if (!pathsRemain) {
-								// Dead
-								localDeadStates.add(state);
-							}
+						buffers.block[blockCount] = index.toState(state);
+						buffers.blockIndex[blockCount++] = state;
+						if (blockCount == batchSize) {
+							resolveBlock(batch, lookup, buffers, blockCount, depths, currentDepth, result);
+							blockCount = 0;
 						}
+					}
+					resolveBlock(batch, lookup, buffers, blockCount, depths, currentDepth, result);
+				});
 
-						if (localDeadStates.size() > 0) synchronized (deadStates) {
-							deadStates.addAll(localDeadStates);
-						}
-						synchronized (monitor) {
-							monitor_progressCount[0] += localProgressCount;
-							monitor_counter[0] += localCounter;
-							monitor.notifyAll();
-						}
-						return states;
-					});
-					futures.add(future);
+				long commitStart = System.nanoTime();
+				ScanResult[] results;
+				synchronized (scanResults) {
+					results = scanResults.toArray(new ScanResult[0]);
 				}
 
-				int mainCounter = 0, mainProgressCount = 0;
-				while (true) {
-					try {
-						synchronized (monitor) {
-							monitor.wait(2000);
-							mainProgressCount = monitor_progressCount[0];
-							mainCounter = monitor_counter[0];
+				// Threads found disjoint states, so each result is written on its own once every scan has read the tracker
+				List<Future<?>> commits = new ArrayList<>();
+				for (ScanResult result : results) {
+					commits.add(executor.submit(() -> {
+						for (int i = 0; i < result.found.size(); i++) {
+							depths.setDepth(result.found.getInt(i), currentDepth);
 						}
-					} catch (InterruptedException e) {
-						e.printStackTrace();
-					}
-					if (mainProgressCount == 1000000000) break;
-				}
-
-				counter = mainCounter;
-
-				synchronized (deadStates) {
-					for (int state : deadStates) {
-						prunedDead ++;
-						depths.markDead(state);
-					}
+						for (int i = 0; i < result.dead.size(); i++) {
+							depths.markDead(result.dead.getInt(i));
+						}
+					}));
 				}
-	
 				try {
-					for (Future<ArrayList<Integer>> future : futures) {
-						ArrayList<Integer> states = future.get();
-						for (int state : states) {
-							depths.setDepth(state, currentDepth);
-						}
+					for (Future<?> commit : commits) {
+						commit.get();
 					}
 				} catch (InterruptedException | ExecutionException e) {
 					e.printStackTrace();
 					break;
 				}
-				
+
+				if (packed != null) packed.finishLevel(currentDepth);
+				depths.compact(executor);
+
+				int mainCounter = 0;
+				for (ScanResult result : results) {
+					mainCounter += result.found.size();
+				}
+				counter = mainCounter + closedCount;
+
+				frontier = counter <= TOP_DOWN_MAX_FRONTIER && closedFrontier != null ? new IntArrayList(closedFrontier) : null;
+				for (ScanResult result : results) {
+					prunedDead += result.dead.size();
+					if (frontier != null) frontier.addAll(result.found);
+				}
+
+				stats.scanMillis = (commitStart - scanStart) / 1000000;
+				stats.commitMillis = (System.nanoTime() - commitStart) / 1000000;
 			}
 
 			stats.backtracking = true;
 			statsUpdate.accept(stats);
-			MJDepthsBacktracker backtracker = new MJDepthsBacktracker(depths);
-			backtracker.backtrack();
-			backtracker.reportResults(out);
+			if (packed != null) {
+				packed.backtrack(out);
+			} else {
+				backtracker = new MJDepthsBacktracker(depths);
+				backtracker.backtrack();
+				backtracker.reportResults(out);
+			}
 			stats.backtracking = false;
 			statsUpdate.accept(stats);
 
@@ -293,32 +433,178 @@ public class MJAnalysis {
 			e.printStackTrace();
 		} finally {
 			executor.shutdown();
+			try {
+				// A failed level can leave tasks running on the arrays, so they're only handed back once the workers stop
+				executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+				if (backtracker != null) backtracker.close();
+				if (tracker != null) tracker.close();
+			} catch (InterruptedException | IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * The levels up to MAX_DEPTH, expanded top-down from the goals with MJTopDown.  The visited
+	 * states are an MJIntSet and only the last level is kept as a list, so memory follows the states
+	 * found rather than the index.  No pruning is needed, as pruned states have no path to the goals.
+	 * Writes the per-depth counts and, per level, all of its states or an evenly spaced sample of
+	 * MJDepthsBacktracker.THRESHOLD of them.
+	 */
+	private void boundedDepthAnalysis(int idx, String filename, MJAnalysisStats stats, Consumer<MJAnalysisStats> statsUpdate) {
+		ForkJoinPool executor = new ForkJoinPool(threads);
+		try (PrintStream out = new PrintStream(new File(storageDir.resolve("depths_bounded_" + MAX_DEPTH + "_" + idx + filename + ".txt").toString()))) {
+			out.println("Starting analysis for " + idx + " " + filename + " with CPU - pruner: " + false + " - max depth: " + MAX_DEPTH);
+
+			IntArrayList frontier = new IntArrayList();
+			int counter = generateDepth0(null, frontier);
+			MJIntSet visited = new MJIntSet(index.size());
+			for (int i = 0; i < frontier.size(); i++) visited.add(frontier.getInt(i));
+			stats.begun = true;
+			statsUpdate.accept(stats);
+
+			List<String> samples = new ArrayList<>();
+			int counterAccum = 0;
+			for (int depth = 0; counter > 0; depth++) {
+				// The goals outside the palette in counter aren't in the index
+				counterAccum += frontier.size();
+				stats.unreached = index.size() - counterAccum;
+				stats.depth = depth;
+				stats.statesAtDepth = counter;
+				statsUpdate.accept(stats);
+
+				out.println("Depth " + depth + " has " + counter + " states");
+				samples.add(sample(frontier, depth, counter));
+				if (depth == MAX_DEPTH) break;
+
+				long scanStart = System.nanoTime();
+				frontier = MJTopDown.expand(executor, threads, index, state -> !visited.contains(state), visited::add, frontier);
+				counter = frontier.size();
+				stats.scanMillis = (System.nanoTime() - scanStart) / 1000000;
+				stats.commitMillis = 0;
+			}
+			for (String sample : samples) out.print(sample);
+
+			stats.complete = true;
+			out.println("Complete");
+			statsUpdate.accept(stats);
+
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	// A header line, then the level's decimal states in index order, evenly spaced if there are more than THRESHOLD
+	// counter is the level's count in the Depth line, which includes the goals outside the palette
+	private String sample(IntArrayList level, int depth, int counter) {
+		int[] states = level.toIntArray();
+		Arrays.sort(states);
+		int listed = Math.min(states.length, MJDepthsBacktracker.THRESHOLD);
+		String excluded = counter != states.length ? " in the palette (" + (counter - states.length) + " goals outside it excluded)" : "";
+		StringBuilder sb = new StringBuilder("Sampled depth " + depth + " has " + states.length + " states" + excluded + ", listing " + listed + "\n");
+		if (listed == 0) return sb.toString();
+		for (int i = 0; i < listed; i++) {
+			if (i > 0) sb.append(',');
+			sb.append(index.toState(states[(int) ((long) i * states.length / listed)]));
 		}
+		return sb.append('\n').toString();
 	}
 
-	private int generateDepth0(MoraJaiBox box, DepthTracker depths) {
-		int counter = 0;
-		Color[] initColors = new Color[9];
-		initColors[0] = targetColors[0];
-		initColors[2] = targetColors[1];
-		initColors[6] = targetColors[3];
-		initColors[8] = targetColors[2];
-
-		for (int i = 0; i < 100000; i++) {
-			int decomp = i;
-			for (int j = 0; j < 9; j++) {
-				if (j == 0 || j == 2 || j == 6 || j == 8) continue;
-				initColors[j] = MoraJaiBox.COLOR_VALUES[decomp % 10];
-				decomp /= 10;
+	// Check a block of unreached states for a path to the previous depth, adding them to result.found
+	// buffers.block holds the decimal states for the successor engine, blockIndex their tracker indices
+	// With a lookup, all successor depths are resolved up front into answers
+	private static void resolveBlock(MJBatchSuccessors batch, MJSuccessorLookup lookup, ScanBuffers buffers, int count,
+			DepthTracker depths, int currentDepth, ScanResult result) {
+		int[] successors = buffers.successors;
+		int[] answers = buffers.answers;
+		batch.successors(buffers.block, count, successors);
+		depths.index.toIndex(successors, count * 9);
+		if (lookup != null) lookup.resolve(depths, successors, count * 9, answers);
+		nextState: for (int b = 0; b < count; b++) {
+			int state = buffers.blockIndex[b];
+			boolean pathsRemain = false;
+			for (int i = b * 9; i < b * 9 + 9; i++) {
+				int newState = successors[i];
+				int newDepth = lookup != null ? answers[i] : depths.getDepth(newState);
+				
+				// Closed class states are written ahead with their final depth and count as unreached until then
+				if ((newDepth == DepthTracker.UNREACHED || newDepth >= currentDepth) && newState != state) {
+					pathsRemain = true;
+				}
+
+				if (newDepth == currentDepth - 1) { // Found a path to the previous depth
+					result.found.add(state);
+					continue nextState;
+				}
 			}
 
-			box.init(targetColors, initColors);
-			if (box.areInnerMatchingOuter()) {
-				depths.setDepth(box.getState(), 0);
-				counter++;
+			if (!pathsRemain) {
+				// Dead
+				result.dead.add(state);
+			}
+		}
+	}
+
+	// Ascending indices of the unreached states in the worklist, or the whole index if null
+	// Chunks count their states first, so each can then fill its own range of the result in parallel
+	private static int[] compactWorklist(ExecutorService executor, DepthTracker depths, int[] worklist, int numChunks) {
+		int scanSize = worklist == null ? depths.size() : worklist.length;
+		int chunkSize = (scanSize + numChunks - 1) / numChunks;
+		try {
+			List<Future<Integer>> counts = new ArrayList<>();
+			for (int chunk = 0; chunk < numChunks; chunk++) {
+				int start = (int) Math.min((long) chunk * chunkSize, scanSize);
+				int end = Math.min(start + chunkSize, scanSize);
+				counts.add(executor.submit(() -> {
+					int count = 0;
+					for (int p = start; p < end; p++) {
+						if (depths.isUnreached(worklist == null ? p : worklist[p])) count++;
+					}
+					return count;
+				}));
+			}
+			int[] offsets = new int[numChunks + 1];
+			for (int chunk = 0; chunk < numChunks; chunk++) {
+				offsets[chunk + 1] = offsets[chunk] + counts.get(chunk).get();
+			}
+
+			int[] compacted = new int[offsets[numChunks]];
+			List<Future<?>> fills = new ArrayList<>();
+			for (int chunk = 0; chunk < numChunks; chunk++) {
+				int start = (int) Math.min((long) chunk * chunkSize, scanSize);
+				int end = Math.min(start + chunkSize, scanSize);
+				int offset = offsets[chunk];
+				fills.add(executor.submit(() -> {
+					int k = offset;
+					for (int p = start; p < end; p++) {
+						int state = worklist == null ? p : worklist[p];
+						if (depths.isUnreached(state)) compacted[k++] = state;
+					}
+				}));
+			}
+			for (Future<?> fill : fills) {
+				fill.get();
 			}
+			return compacted;
+		} catch (InterruptedException | ExecutionException e) {
+			throw new RuntimeException(e);
 		}
-		return counter;
+	}
+
+	private int generateDepth0(DepthTracker depths, IntArrayList goals) {
+		int[] counter = new int[1];
+		MoraJaiBox.forEachGoal(targetColors, goal -> {
+			// Goal states outside the palette are still counted, as they were when pruned dead in the full index
+			int state = index.toIndex(goal);
+			if (state >= 0) {
+				if (depths != null) depths.setDepth(state, 0);
+				goals.add(state);
+			}
+			counter[0]++;
+		});
+		return counter[0];
 	}
 
 
@@ -378,6 +664,54 @@ public class MJAnalysis {
 		reportStatesOption.setRequired(false);
 		options.addOption(reportStatesOption);
 
+		Option engineOption = new Option("e", "engine", true, "CPU successor engine: auto, native, vector or scalar (default auto)");
+		engineOption.setRequired(false);
+		options.addOption(engineOption);
+
+		Option sortedLookupsOption = new Option("l", "sortedLookups", false, "Resolve CPU successor lookups in memory order");
+		sortedLookupsOption.setRequired(false);
+		options.addOption(sortedLookupsOption);
+
+		Option noClosedClassesOption = new Option("n", "noClosedClasses", false, "Don't solve closed color multiset classes separately on the CPU");
+		noClosedClassesOption.setRequired(false);
+		options.addOption(noClosedClassesOption);
+
+		Option sccDirOption = new Option("S", "sccDir", true, "Directory with the MJCondensation output, marks dead components up front on the CPU");
+		sccDirOption.setRequired(false);
+		options.addOption(sccDirOption);
+
+		Option topDownAlphaOption = new Option("t", "topDownAlpha", true, "Expand CPU levels top-down while the frontier is under 1/t of the unreached states, 0 to always scan (default 16)");
+		topDownAlphaOption.setRequired(false);
+		options.addOption(topDownAlphaOption);
+
+		Option worklistFractionOption = new Option("w", "worklistFraction", true, "Scan a compacted list of the unreached states once they are under this fraction of the last scan, 0 to always scan every state (default 0.125)");
+		worklistFractionOption.setRequired(false);
+		options.addOption(worklistFractionOption);
+
+		Option multiBoxOption = new Option("m", "multiBox", false, "CPU threads solve up to 64 boxes per pass with MJMultiBoxAnalysis (no pruning)");
+		multiBoxOption.setRequired(false);
+		options.addOption(multiBoxOption);
+
+		Option bitsetOption = new Option("B", "bitset", false, "CPU threads use MJBitsetAnalysis, the GPU's reached/current/next bitset scheme");
+		bitsetOption.setRequired(false);
+		options.addOption(bitsetOption);
+
+		Option externalOption = new Option("x", "external", false, "CPU threads use MJExternalAnalysis, keeping levels in sorted run files under the storage directory (no depth tracker)");
+		externalOption.setRequired(false);
+		options.addOption(externalOption);
+
+		Option packedDepthsOption = new Option("p", "packedDepths", false, "Default CPU engine only: 2 bits per state instead of the 1 byte depth tracker, with finished levels kept in run files under the storage directory (no closed classes)");
+		packedDepthsOption.setRequired(false);
+		options.addOption(packedDepthsOption);
+
+		Option depthBackingOption = new Option("T", "depthBacking", true, "Depth tracker storage: heap, offheap (direct memory, raise -XX:MaxDirectMemorySize), file (mapped from the storage directory) or paged (64 KB pages allocated on first write) (default heap)");
+		depthBackingOption.setRequired(false);
+		options.addOption(depthBackingOption);
+
+		Option maxDepthOption = new Option("k", "maxDepth", true, "Default CPU engine only: stop after this depth, skip the backtracking and list a sample of each level (default 0, the full analysis)");
+		maxDepthOption.setRequired(false);
+		options.addOption(maxDepthOption);
+
 		CommandLineParser parser = new DefaultParser();
 		HelpFormatter formatter = new HelpFormatter();
 		CommandLine cmd;
@@ -401,11 +735,18 @@ public class MJAnalysis {
 		Path storageDir = Paths.get(cmd.getOptionValue("storageDir", "results"));
 		int reportStates = Integer.parseInt(cmd.getOptionValue("reportStates", "2000"));
 		MJDepthsBacktracker.THRESHOLD = reportStates;
-
-		if (noBlue && gpuPrunerThreads == 0 && numGPUThreads > 0) {
-			System.err.println("GPU pruner is required for noBlue");
-			System.exit(1);
-		}
+		MJBatchSuccessors.ENGINE = cmd.getOptionValue("engine", "auto");
+		SORTED_LOOKUPS = cmd.hasOption("sortedLookups");
+		CLOSED_CLASSES = !cmd.hasOption("noClosedClasses");
+		SCC_DIR = cmd.hasOption("sccDir") ? Paths.get(cmd.getOptionValue("sccDir")) : null;
+		TOP_DOWN_ALPHA = Integer.parseInt(cmd.getOptionValue("topDownAlpha", "16"));
+		WORKLIST_FRACTION = Double.parseDouble(cmd.getOptionValue("worklistFraction", "0.125"));
+		boolean multiBox = cmd.hasOption("multiBox");
+		boolean bitset = cmd.hasOption("bitset");
+		boolean external = cmd.hasOption("external");
+		PACKED_DEPTHS = cmd.hasOption("packedDepths");
+		DEPTH_BACKING = cmd.getOptionValue("depthBacking", "heap");
+		MAX_DEPTH = Integer.parseInt(cmd.getOptionValue("maxDepth", "0"));
 
 		// Error if storage directory doesn't exist
 		if (!Files.exists(storageDir)) {
@@ -413,6 +754,21 @@ public class MJAnalysis {
 			System.exit(1);
 		}
 
+		// Checked here, as a failure inside a box only skips to the next one behind the status screen
+		if (!Arrays.asList("heap", "offheap", "file", "paged").contains(DEPTH_BACKING)) {
+			System.err.println("Unknown depth backing: " + DEPTH_BACKING);
+			System.exit(1);
+		}
+		if (DEPTH_BACKING.equals("file") && !ModuleLayer.boot().findModule("jdk.incubator.foreign").isPresent()) {
+			System.err.println("File depth backing needs --add-modules jdk.incubator.foreign");
+			System.exit(1);
+		}
+
+		if (SCC_DIR != null && !MJCondensation.exists(SCC_DIR, StateIndex.forNoBlue(noBlue))) {
+			System.err.println("Condensation files not found in " + SCC_DIR + ", run MJCondensation first");
+			System.exit(1);
+		}
+
 		ExecutorService pruneExecutor = (gpuPrunerThreads > 0) ? Executors.newWorkStealingPool(gpuPrunerThreads) : null;
 		
 		int numThreads = numCPUThreads + numGPUThreads;
@@ -452,6 +808,33 @@ public class MJAnalysis {
 									stats[threadId] = s;
 								}
 							});
+						} else if (multiBox) {
+							List<Integer> batch = new ArrayList<>();
+							batch.add(idx);
+							queue.drainTo(batch, MJMultiBoxAnalysis.LANES - 1);
+							ids[threadId] = total - queue.size() - 1;
+							MJMultiBoxAnalysis analysis = new MJMultiBoxAnalysis(storageDir, noBlue);
+							analysis.setThreads(numInnerThreads);
+							analysis.fullDepthAnalysis(batch.stream().mapToInt(Integer::intValue).toArray(), (s) -> {
+								synchronized(stats) {
+									stats[threadId] = s;
+								}
+							});
+						} else if (external) {
+							MJExternalAnalysis analysis = new MJExternalAnalysis(storageDir, targetColors, noBlue);
+							analysis.fullDepthAnalysis(idx, (s) -> {
+								synchronized(stats) {
+									stats[threadId] = s;
+								}
+							});
+						} else if (bitset) {
+							MJBitsetAnalysis analysis = new MJBitsetAnalysis(storageDir, targetColors, noBlue);
+							analysis.setThreads(numInnerThreads);
+							analysis.fullDepthAnalysis(idx, (s) -> {
+								synchronized(stats) {
+									stats[threadId] = s;
+								}
+							});
 						} else {
 							MJAnalysis analysis = new MJAnalysis(storageDir, targetColors, noBlue);
 							analysis.setThreads(numInnerThreads);
@@ -476,8 +859,8 @@ public class MJAnalysis {
 		screen.setCursorPosition(null);
 
 		try {
-			final String headerFormat = "%-5s %-6s %-30s %-12s %-8s %-10s %-12s %-12s";
-    		final String header = String.format(headerFormat, "#", "ID", "Filename", "Status", "Depth", "Size", "Unreached", "Dead");
+			final String headerFormat = "%-5s %-6s %-30s %-12s %-8s %-10s %-12s %-12s %-10s %-10s";
+    		final String header = String.format(headerFormat, "#", "ID", "Filename", "Status", "Depth", "Size", "Unreached", "Dead", "Scan ms", "Commit ms");
 			
 			TerminalSize terminalSize = screen.getTerminalSize();
 			
@@ -514,17 +897,17 @@ public class MJAnalysis {
 					MJAnalysisStats s = stats[i];
 					String line;
 					if (!s.begun) {
-						line = String.format(headerFormat, ids[i] == -1 ? "-" : ids[i], s.idx, s.filename, "Waiting", "-", "-", "-", "-");
+						line = String.format(headerFormat, ids[i] == -1 ? "-" : ids[i], s.idx, s.filename, "Waiting", "-", "-", "-", "-", "-", "-");
 					} else if (s.complete) {
-						line = String.format(headerFormat, ids[i] == -1 ? "-" : ids[i], s.idx, s.filename, "Complete", s.depth, s.statesAtDepth, s.unreached, s.dead);
+						line = String.format(headerFormat, ids[i] == -1 ? "-" : ids[i], s.idx, s.filename, "Complete", s.depth, s.statesAtDepth, s.unreached, s.dead, s.scanMillis, s.commitMillis);
 					} else {
 						String runStatus = s.backtracking ? "Backtrack" : s.pruning ? "Pruning" : "Running";
-						line = String.format(headerFormat, ids[i] == -1 ? "-" : ids[i], s.idx, s.filename, runStatus, s.depth, s.statesAtDepth, s.unreached, s.dead);
+						line = String.format(headerFormat, ids[i] == -1 ? "-" : ids[i], s.idx, s.filename, runStatus, s.depth, s.statesAtDepth, s.unreached, s.dead, s.scanMillis, s.commitMillis);
 					}
 					tg.putString(0, i + 1, String.format("%-" + terminalSize.getColumns() + "s", line));
 				}
 				
-				String footer = "Press 'q' to quit, 'c' to clear queue. ";
+				String footer = "Press 'q' to quit, 'c' to clear queue. " + MJBufferPool.SHARED + ". ";
 				if (!queue.isEmpty()) {
 					footer += queue.size() + " items remaining.";
 				} else {
@@ -16,6 +16,7 @@ import java.util.Queue;
 import java.util.StringJoiner;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -43,10 +44,12 @@ public class MJAnalysisGPU {
 
 	private final boolean noBlue;
 	private final Path storageDir;
+	private final StateIndex index;
 
 	public MJAnalysisGPU(Path storageDir, boolean noBlue) {
 		this.noBlue = noBlue;
 		this.storageDir = storageDir;
+		this.index = StateIndex.forNoBlue(noBlue);
 	}
 
 	public String stateToJson(Color[] targetColors, int state) {
@@ -64,11 +67,6 @@ public class MJAnalysisGPU {
 		depths[idx] |= 1L << (state & 63);
 	}
 
-	private boolean isSet(long[] depths, int state) {
-		int idx = state >> 6;
-		return (depths[idx] & (1L << (state & 63))) != 0;
-	}
-
 	private static final Object initMonitor = new Object();
 	private static boolean initInitiated = false;
 
@@ -113,7 +111,11 @@ public class MJAnalysisGPU {
 		cl_command_queue commandQueue = null;
 		cl_program program = null;
 		cl_kernel kernel = null;
-		cl_mem memObjects[] = new cl_mem[3];
+		cl_mem memObjects[] = new cl_mem[5];
+		// Pooled, so returned to MJBufferPool in the finally block however the analysis ends
+		long[] reached = null, current = null, next = null, nextClone = null;
+		DepthTracker depths = null;
+		MJDepthsBacktracker backtracker = null;
 
 		try {
 			// Initialize OpenCL
@@ -154,10 +156,13 @@ public class MJAnalysisGPU {
 
 			try (PrintStream out = new PrintStream(new File(storageDir.resolve("depths_v3_" + idx + filename + ".txt").toString()))) {
 				out.println("Starting analysis for " + idx + " " + filename + " with GPU - pruner: " + (pruneExecutor != null));
-				long[] reached = new long[1000000000 / 64];
-				long[] current = new long[1000000000 / 64];
-				long[] next = new long[1000000000 / 64];
-				DepthTracker depths = new DepthTracker();
+				// Bitsets and tracker are over StateIndex positions
+				// Pruned states are marked reached so the kernel never expands into them
+				MJConcurrentBitSet reachedBits = MJConcurrentBitSet.pooled(index.size());
+				reached = reachedBits.words();
+				current = MJBufferPool.SHARED.longs(reached.length);
+				next = MJBufferPool.SHARED.longs(reached.length);
+				depths = DepthTracker.create(index, storageDir.resolve("depths_" + idx + filename + ".bin"));
 				int counter = generateDepth0(targetColors, current, depths);
 				stats.depth = 0;
 				stats.statesAtDepth = counter;
@@ -167,13 +172,7 @@ public class MJAnalysisGPU {
 				if (pruneExecutor != null) {
 					stats.pruning = true;
 					statsUpdate.accept(stats);
-					int prunedDead = MJColorPrune.prune(pruneExecutor, noBlue, targetColors, (states) -> {
-						synchronized (reached) {
-							for (int state : states) {
-								set(reached, state);
-							}
-						}
-					});
+					int prunedDead = MJColorPrune.prune(pruneExecutor, index, targetColors, reachedBits);
 					stats.initalPruned = prunedDead;
 					stats.dead = prunedDead;
 					stats.pruning = false;
@@ -190,9 +189,18 @@ public class MJAnalysisGPU {
 				CL.clSetKernelArg(kernel, 1, Sizeof.cl_mem, Pointer.to(memObjects[1]));
 				CL.clSetKernelArg(kernel, 2, Sizeof.cl_mem, Pointer.to(memObjects[2]));
 
+				int[] rankColors = index.rankColors();
+				int[] colorRanks = index.colorRanks();
+				memObjects[3] = CL.clCreateBuffer(context, CL.CL_MEM_READ_ONLY | CL.CL_MEM_COPY_HOST_PTR, rankColors.length * Sizeof.cl_int, Pointer.to(rankColors), null);
+				memObjects[4] = CL.clCreateBuffer(context, CL.CL_MEM_READ_ONLY | CL.CL_MEM_COPY_HOST_PTR, colorRanks.length * Sizeof.cl_int, Pointer.to(colorRanks), null);
+				CL.clSetKernelArg(kernel, 4, Sizeof.cl_int, Pointer.to(new int[]{index.size()}));
+				CL.clSetKernelArg(kernel, 5, Sizeof.cl_int, Pointer.to(new int[]{index.radix()}));
+				CL.clSetKernelArg(kernel, 6, Sizeof.cl_mem, Pointer.to(memObjects[3]));
+				CL.clSetKernelArg(kernel, 7, Sizeof.cl_mem, Pointer.to(memObjects[4]));
+
 				while (counter > 0) {
 					counterAccum += counter;
-					stats.unreached = 1_000_000_000 - counterAccum - stats.dead;
+					stats.unreached = index.size() - counterAccum - stats.dead;
 					stats.depth = depth;
 					stats.statesAtDepth = counter;
 					statsUpdate.accept(stats);
@@ -218,15 +226,15 @@ public class MJAnalysisGPU {
 						workGroupSizes.add(workGroupSize);
 					}
 
-					long[] nextClone = null;
-
 					// Theoretically smaller work groups would be best because the kernel execution time can vary significantly
 					//    but check for the best average time
 					while (!workGroupSizes.isEmpty()) {
 						int WGS = workGroupSizes.poll();
 
 						if (probeBestTime) {
-							nextClone = next.clone();
+							// Left over from a failed probe, at this depth or an earlier one
+							if (nextClone != null) MJBufferPool.SHARED.release(nextClone);
+							nextClone = MJBufferPool.SHARED.copyOf(next);
 						}
 
 						boolean success = false;
@@ -240,7 +248,7 @@ public class MJAnalysisGPU {
 							
 							// Execute kernel
 							int chunkSize = 50; // Seems optimal based on quick benchmarks
-							int globalWorkSize = (int)(Math.ceil(1_000_000_000.0 / chunkSize / WGS) * WGS);
+							int globalWorkSize = (int)(Math.ceil((double) index.size() / chunkSize / WGS) * WGS);
 							CL.clSetKernelArg(kernel, 3, Sizeof.cl_int, Pointer.to(new int[]{chunkSize}));
 							long global_work_size[] = new long[]{globalWorkSize};
 							long local_work_size[] = new long[]{WGS};
@@ -271,6 +279,7 @@ public class MJAnalysisGPU {
 								// Add another to queue
 								workGroupSizes.add(WGS);
 							}
+							MJBufferPool.SHARED.release(next);
 							next = nextClone;
 							nextClone = null;
 							
@@ -309,38 +318,16 @@ public class MJAnalysisGPU {
 					}
 
 					
-					// Count 'set' bits in next array
-					for (int i = 0; i < next.length; i++) {
-						long l = next[i];
-						if (l != 0) {
-							for (int j = 0; j < 64; j++) {
-								if (isSet(next, i * 64 + j)) {
-									counter++;
-								}
-							}
-						}
-					}
-					//System.out.println("Counted " + counter + " states");
-					
-					if (counter > 0) {
-						for (int i = 0; i < reached.length; i++) {
-							reached[i] |= current[i];
-							current[i] = next[i];
-							if (next[i] != 0L) {
-								for (int j = 0; j < 64; j++) {
-									if (isSet(next, i * 64 + j)) {
-										depths.setDepth(i * 64 + j, depth);
-									}
-								}
-							}
-							next[i] = 0L;
-						}
-					}
+					// Count and commit next on the host, swapping it in as current instead of copying
+					counter = MJFrontierCommit.commit(ForkJoinPool.commonPool(), ForkJoinPool.getCommonPoolParallelism(), reached, current, next, depths, depth);
+					long[] older = current;
+					current = next;
+					next = older;
 				}
 
 				stats.backtracking = true;
 				statsUpdate.accept(stats);
-				MJDepthsBacktracker backtracker = new MJDepthsBacktracker(depths);
+				backtracker = new MJDepthsBacktracker(depths);
 				backtracker.backtrack();
 				backtracker.reportResults(out);
 				stats.backtracking = false;
@@ -360,41 +347,30 @@ public class MJAnalysisGPU {
 			if (program != null) CL.clReleaseProgram(program);
 			if (commandQueue != null) CL.clReleaseCommandQueue(commandQueue);
 			if (context != null) CL.clReleaseContext(context);
+			if (backtracker != null) backtracker.close();
+			for (long[] words : new long[][] {reached, current, next, nextClone}) {
+				if (words != null) MJBufferPool.SHARED.release(words);
+			}
+			try {
+				if (depths != null) depths.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
 		}
 	}
 
 	private int generateDepth0(MoraJaiBox.Color[] targetColors, long[] depths, DepthTracker depthsTracker) {
-		int counter = 0;
-		MoraJaiBox.Color[] initColors = new MoraJaiBox.Color[9];
-		initColors[0] = targetColors[0];
-		initColors[2] = targetColors[1];
-		initColors[8] = targetColors[2];
-		initColors[6] = targetColors[3];
-
-		MoraJaiBox box = new MoraJaiBox();
-
-		for (int i = 0; i < 100000; i++) {
-			int recomp = 0;
-			int decomp = i;
-			for (int j = 0; j < 9; j++) {
-				if (j == 0 || j == 2 || j == 6 || j == 8) {}
-				else {
-					initColors[j] = MoraJaiBox.COLOR_VALUES[decomp % 10];
-					decomp /= 10;
-				}
-				// TODO check this
-				recomp += initColors[j].ordinal() * Math.pow(10, j);
-			}
-
-			box.initFromState(targetColors, recomp);
-			if (box.areInnerMatchingOuter()) {
-				int state = box.getState();
+		int[] counter = new int[1];
+		MoraJaiBox.forEachGoal(targetColors, goal -> {
+			// Goal states outside the palette are still counted, as they were when pruned dead in the full index
+			int state = index.toIndex(goal);
+			if (state >= 0) {
 				depthsTracker.setDepth(state, 0);
 				set(depths, state);
-				counter++;
 			}
-		}
-		return counter;
+			counter[0]++;
+		});
+		return counter[0];
 	}
 
 	public static void main(String[] args) throws InterruptedException {
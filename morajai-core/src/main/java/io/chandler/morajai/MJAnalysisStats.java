@@ -14,6 +14,10 @@ public class MJAnalysisStats {
 	int dead = 0;
 	int statesAtDepth = 0;
 
+	// Wall time of the last bottom-up level, split into the scan and the tracker commit
+	long scanMillis = 0;
+	long commitMillis = 0;
+
 	boolean complete = false;
 
 	public MJAnalysisStats(int idx, String filename) {
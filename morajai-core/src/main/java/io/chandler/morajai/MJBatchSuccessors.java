@@ -0,0 +1,141 @@
+package io.chandler.morajai;
+
+import static io.chandler.morajai.MoraJaiBox.Color.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import io.chandler.morajai.MoraJaiBox.Color;
+
+/**
+ * Computes the 9 successors for a block of states at a time.
+ *
+ * create() picks the engine named by ENGINE:
+ *  - "native": the simulator's C rules through jdk.incubator.foreign (MJNativeSuccessors)
+ *  - "vector": the Vector API engine (MJVectorSuccessors), needs --add-modules jdk.incubator.vector
+ *  - "scalar": MoraJaiBox.successors
+ *  - "auto": vector, then native, then scalar
+ * Reflective engines are loaded once and self-checked against MoraJaiBox.pressTile; any that
+ * can't load or fail the check fall back to the scalar engine.
+ *
+ * Instances hold scratch space and are not thread safe; create one per worker thread.
+ */
+public abstract class MJBatchSuccessors {
+
+	public static String ENGINE = "auto";
+
+	private static final Object initMonitor = new Object();
+	private static final Map<String, Boolean> available = new HashMap<>();
+
+	/**
+	 * Fills out[lane * 9 + tile] with the successor of states[lane] when tile is pressed
+	 * @param states Decimal state indices
+	 * @param count Number of states to process from the start of states
+	 * @param out At least count * 9 entries
+	 */
+	public abstract void successors(int[] states, int count, int[] out);
+
+	/**
+	 * Number of states processed per vector operation; blocks sized as a multiple of this avoid the scalar tail
+	 */
+	public abstract int lanes();
+
+	public abstract String name();
+
+	public static MJBatchSuccessors create() {
+		String[] candidates = ENGINE.equals("auto") ? new String[] {"vector", "native"} : new String[] {ENGINE};
+		synchronized (initMonitor) {
+			for (String name : candidates) {
+				String className = engineClass(name);
+				if (className == null) continue;
+
+				Boolean ok = available.get(name);
+				if (ok == null) {
+					ok = false;
+					try {
+						ok = selfCheck(newEngine(className));
+						if (!ok) System.err.println("Successor engine " + name + " failed self-check, not using it");
+					} catch (LinkageError | ReflectiveOperationException e) {
+						// Incubator module, native library or native access not available
+					}
+					available.put(name, ok);
+				}
+				if (ok) {
+					try {
+						return newEngine(className);
+					} catch (ReflectiveOperationException e) {
+						throw new RuntimeException(e);
+					}
+				}
+			}
+		}
+		return new Scalar();
+	}
+
+	private static String engineClass(String name) {
+		switch (name) {
+			case "native": return "io.chandler.morajai.MJNativeSuccessors";
+			case "vector": return "io.chandler.morajai.MJVectorSuccessors";
+			case "scalar": return null;
+			default: throw new IllegalArgumentException("Unknown successor engine: " + name);
+		}
+	}
+
+	private static MJBatchSuccessors newEngine(String className) throws ReflectiveOperationException {
+		// Loaded reflectively so the class never links when its module or library is missing
+		Class<?> clazz = Class.forName(className);
+		return (MJBatchSuccessors) clazz.getDeclaredConstructor().newInstance();
+	}
+
+	/**
+	 * Compare an engine against the reference MoraJaiBox.pressTile path
+	 */
+	static boolean selfCheck(MJBatchSuccessors engine) {
+		Color[] targetColors = new Color[] {C_GY, C_GY, C_GY, C_GY};
+		Random random = new Random(0);
+		int count = engine.lanes() * 64 + 3; // Exercise the scalar tail too
+		int[] states = new int[count];
+		int[] out = new int[count * 9];
+		MoraJaiBox box = new MoraJaiBox();
+
+		for (int round = 0; round < 16; round++) {
+			for (int i = 0; i < count; i++) {
+				states[i] = random.nextInt(1000000000);
+			}
+			if (round == 0) {
+				states[0] = 0;
+				states[1] = 999999999;
+			}
+			engine.successors(states, count, out);
+			for (int i = 0; i < count; i++) {
+				box.initFromState(targetColors, states[i]);
+				for (int tile = 0; tile < 9; tile++) {
+					box.reset();
+					box.pressTile(tile);
+					if (box.getState() != out[i * 9 + tile]) return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	static class Scalar extends MJBatchSuccessors {
+		@Override
+		public void successors(int[] states, int count, int[] out) {
+			for (int i = 0; i < count; i++) {
+				MoraJaiBox.successors(states[i], StateCodec.pack(states[i]), out, i * 9);
+			}
+		}
+
+		@Override
+		public int lanes() {
+			return 1;
+		}
+
+		@Override
+		public String name() {
+			return "scalar";
+		}
+	}
+}
@@ -0,0 +1,218 @@
+package io.chandler.morajai;
+
+import static io.chandler.morajai.MoraJaiBox.Color.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import io.chandler.morajai.MJAnalysis.DepthTracker;
+import io.chandler.morajai.MoraJaiBox.Color;
+
+/**
+ * CPU port of the MJAnalysisGPU level scheme.
+ *
+ * Three bitsets over the StateIndex positions hold the states reached at earlier depths (and the
+ * pruned ones), the current depth and the next.  A state joins next if it is in neither and any of
+ * its 9 successors is in current, which is the mj_solve kernel.  The scan reads two bits per state
+ * and one bit per successor instead of depth bytes, and never writes the tracker; the commit fills
+ * it in once per level for MJDepthsBacktracker.
+ *
+ * Output files match MJAnalysis.  Memory is the tracker plus 3 bits per state.
+ */
+public class MJBitsetAnalysis {
+
+	private static final int BATCH_SIZE = 1024;
+
+	private final Path storageDir;
+	private final Color[] targetColors;
+	private final boolean noBlue;
+	private final StateIndex index;
+
+	private int threads = 17;
+
+	// Per-thread block buffers for the scan
+	private static class ScanBuffers {
+		final int[] block = new int[BATCH_SIZE];
+		final int[] blockIndex = new int[BATCH_SIZE];
+		final int[] successors = new int[BATCH_SIZE * 9];
+	}
+
+	public MJBitsetAnalysis(Path storageDir, Color[] targetColors, boolean noBlue) {
+		this(storageDir, targetColors, noBlue, StateIndex.forNoBlue(noBlue));
+	}
+
+	MJBitsetAnalysis(Path storageDir, Color[] targetColors, boolean noBlue, StateIndex index) {
+		this.storageDir = storageDir;
+		this.targetColors = targetColors;
+		this.noBlue = noBlue;
+		this.index = index;
+	}
+
+	public MJBitsetAnalysis setThreads(int threads) {
+		this.threads = threads;
+		return this;
+	}
+
+	public void fullDepthAnalysis(int idx, Consumer<MJAnalysisStats> statsUpdate) {
+
+		String filename = noBlue ? "_noBlue" : "";
+		for (Color color : targetColors) {
+			if (noBlue && color == C_BU) return;
+			filename += "_" + color.name();
+		}
+		MJAnalysisStats stats = new MJAnalysisStats(idx, filename);
+		statsUpdate.accept(stats);
+
+		ThreadLocal<MJBatchSuccessors> threadLocalBatch = ThreadLocal.withInitial(MJBatchSuccessors::create);
+		ThreadLocal<ScanBuffers> threadLocalBuffers = ThreadLocal.withInitial(ScanBuffers::new);
+
+		ForkJoinPool executor = new ForkJoinPool(threads);
+		MJLevelScheduler scheduler = new MJLevelScheduler(executor);
+		// Pooled, so returned to MJBufferPool in the finally block however the analysis ends
+		MJConcurrentBitSet reached = null, current = null, next = null;
+		DepthTracker depths = null;
+		MJDepthsBacktracker backtracker = null;
+		try (PrintStream out = new PrintStream(new File(storageDir.resolve("depths_v3_" + idx + filename + ".txt").toString()))) {
+			out.println("Starting analysis for " + idx + " " + filename + " with CPU - pruner: " + true);
+
+			// Pruned states are marked reached so the scan never expands into them
+			reached = MJConcurrentBitSet.pooled(index.size());
+			current = MJConcurrentBitSet.pooled(index.size());
+			next = MJConcurrentBitSet.pooled(index.size());
+			depths = DepthTracker.create(index, storageDir.resolve("depths_" + idx + filename + ".bin"));
+
+			int counter = generateDepth0(current, depths);
+			stats.begun = true;
+			stats.depth = 0;
+			stats.statesAtDepth = counter;
+			stats.pruning = true;
+			statsUpdate.accept(stats);
+
+			int prunedDead = MJColorPrune.prune(executor, index, targetColors, reached);
+			stats.initalPruned = prunedDead;
+			stats.dead = prunedDead;
+			stats.pruning = false;
+			statsUpdate.accept(stats);
+
+			int counterAccum = 0;
+			int depth = 0;
+			int words = reached.words().length;
+			// Bits past the end of the index in the last word
+			long lastMask = -1L >>> -index.size();
+
+			while (counter > 0) {
+				counterAccum += counter;
+				stats.unreached = index.size() - counterAccum - prunedDead;
+				stats.depth = depth;
+				stats.statesAtDepth = counter;
+				statsUpdate.accept(stats);
+
+				out.println("Depth " + depth + " has " + counter + " states");
+				depth++;
+
+				long scanStart = System.nanoTime();
+				long[] reachedWords = reached.words();
+				long[] currentWords = current.words();
+				long[] nextWords = next.words();
+				// A sparse level is looked up in a compressed set instead, whose block table stays in cache
+				MJIntSet currentSet = counter < index.size() >>> MJIntSet.BLOCK_BITS ? MJIntSet.fromWords(executor, currentWords, index.size()) : null;
+				// Leaves cover whole words, so each next word has a single writer
+				scheduler.run(words, (start, end) -> {
+					MJBatchSuccessors batch = threadLocalBatch.get();
+					ScanBuffers buffers = threadLocalBuffers.get();
+
+					int blockCount = 0;
+					for (int w = start; w < end; w++) {
+						long candidates = ~(reachedWords[w] | currentWords[w]);
+						if (w == words - 1) candidates &= lastMask;
+						while (candidates != 0) {
+							int state = w << 6 | Long.numberOfTrailingZeros(candidates);
+							candidates &= candidates - 1;
+
+							buffers.block[blockCount] = index.toState(state);
+							buffers.blockIndex[blockCount++] = state;
+							if (blockCount == BATCH_SIZE) {
+								resolveBlock(batch, buffers, blockCount, currentWords, currentSet, nextWords);
+								blockCount = 0;
+							}
+						}
+					}
+					resolveBlock(batch, buffers, blockCount, currentWords, currentSet, nextWords);
+				});
+
+				long commitStart = System.nanoTime();
+				counter = MJFrontierCommit.commit(executor, threads, reachedWords, currentWords, nextWords, depths, depth);
+				MJConcurrentBitSet older = current;
+				current = next;
+				next = older;
+
+				stats.scanMillis = (commitStart - scanStart) / 1000000;
+				stats.commitMillis = (System.nanoTime() - commitStart) / 1000000;
+			}
+
+			stats.backtracking = true;
+			statsUpdate.accept(stats);
+			backtracker = new MJDepthsBacktracker(depths);
+			backtracker.backtrack();
+			backtracker.reportResults(out);
+			stats.backtracking = false;
+			statsUpdate.accept(stats);
+
+			stats.complete = true;
+			out.println("Complete");
+			statsUpdate.accept(stats);
+
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			executor.shutdown();
+			try {
+				// A failed level can leave tasks running on the arrays, so they're only handed back once the workers stop
+				executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+				if (backtracker != null) backtracker.close();
+				for (MJConcurrentBitSet bits : new MJConcurrentBitSet[] {reached, current, next}) {
+					if (bits != null) MJBufferPool.SHARED.release(bits.words());
+				}
+				if (depths != null) depths.close();
+			} catch (InterruptedException | IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	// Sets the next bit of every state in the block with a successor in current, looked up in currentSet if not null
+	private void resolveBlock(MJBatchSuccessors batch, ScanBuffers buffers, int count, long[] currentWords, MJIntSet currentSet, long[] nextWords) {
+		int[] successors = buffers.successors;
+		batch.successors(buffers.block, count, successors);
+		index.toIndex(successors, count * 9);
+		for (int b = 0; b < count; b++) {
+			for (int i = b * 9; i < b * 9 + 9; i++) {
+				int successor = successors[i];
+				if (currentSet != null ? currentSet.contains(successor) : (currentWords[successor >>> 6] & (1L << successor)) != 0) {
+					int state = buffers.blockIndex[b];
+					nextWords[state >>> 6] |= 1L << state;
+					break;
+				}
+			}
+		}
+	}
+
+	private int generateDepth0(MJConcurrentBitSet current, DepthTracker depths) {
+		int[] counter = new int[1];
+		MoraJaiBox.forEachGoal(targetColors, goal -> {
+			// Goal states outside the palette are still counted, as they were when pruned dead in the full index
+			int state = index.toIndex(goal);
+			if (state >= 0) {
+				depths.setDepth(state, 0);
+				current.set(state);
+			}
+			counter[0]++;
+		});
+		return counter[0];
+	}
+}
@@ -0,0 +1,77 @@
+package io.chandler.morajai;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import io.chandler.morajai.MJAnalysis.DepthTracker;
+import jdk.incubator.foreign.MemorySegment;
+import jdk.incubator.foreign.ResourceScope;
+
+/**
+ * DepthTracker outside the Java heap: a direct ByteBuffer, or a per-box file mapped through
+ * jdk.incubator.foreign, whose pages the OS caches and writes back as it sees fit.
+ *
+ * Bytes are stored complemented, so zeroed memory reads as UNREACHED.  That spares the file a fill
+ * pass, its pages staying sparse until written; allocateDirect zeroes the whole buffer itself, so
+ * the direct buffer is only spared a second pass.  A direct buffer counts against
+ * -XX:MaxDirectMemorySize, which defaults to the heap limit.  The mapping isn't counted anywhere that would force a GC, so close
+ * unmaps it through its scope before deleting the file; the file stays behind if the process dies.
+ * The file mode needs --add-modules jdk.incubator.foreign.
+ */
+class MJBufferDepthTracker extends DepthTracker {
+
+	private final ByteBuffer buffer;
+	// Null for a direct buffer
+	private final Path file;
+	// Owns the mapping, null for a direct buffer
+	private final ResourceScope scope;
+
+	MJBufferDepthTracker(StateIndex index, Path file) throws IOException {
+		super(index, null);
+		this.file = file;
+		if (file == null) {
+			scope = null;
+			buffer = ByteBuffer.allocateDirect(index.size());
+		} else {
+			// Empty any file left by a dead process, so the mapping starts zeroed
+			FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING).close();
+			scope = ResourceScope.newSharedScope();
+			buffer = MemorySegment.mapFile(file, 0, index.size(), FileChannel.MapMode.READ_WRITE, scope).asByteBuffer();
+		}
+	}
+
+	@Override
+	public int getDepth(int state) {
+		byte result = (byte) ~buffer.get(state);
+		return result >= 0 || result < -3 ? result & 0xff : result;
+	}
+
+	@Override
+	public void setDepth(int state, int depth) {
+		if (depth > 250) throw new RuntimeException("Depth exceeds 250");
+		buffer.put(state, (byte) ~depth);
+	}
+
+	@Override
+	public boolean isUnreached(int state) {
+		return buffer.get(state) == (byte) ~UNREACHED;
+	}
+
+	@Override
+	public void markDead(int state) {
+		buffer.put(state, (byte) ~DEAD);
+	}
+
+	@Override
+	void close() throws IOException {
+		// A direct buffer is freed when collected, which its limit forces
+		if (file != null) {
+			scope.close();
+			Files.deleteIfExists(file);
+		}
+	}
+}
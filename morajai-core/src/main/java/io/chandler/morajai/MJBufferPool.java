@@ -0,0 +1,135 @@
+package io.chandler.morajai;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Reusable arrays for the per-box depth trackers and bitsets, shared by the box worker threads.
+ *
+ * Every box of a run needs the same few sizes: a 1 GB tracker, 125 MB bitsets and the backtracker's
+ * 125 MB eliminated set.  Allocating them fresh per box churns the old generation, and several
+ * workers allocating at once can hit a full GC or run out of heap.  Released arrays are kept here
+ * up to MAX_FREE_BYTES and handed out again, reset on checkout by a parallel fill on the common
+ * pool.  toString gives the counts for the status screen.
+ */
+public final class MJBufferPool {
+
+	public static final MJBufferPool SHARED = new MJBufferPool();
+
+	// Free array bytes kept for reuse, past which released arrays are left to the GC; 0 disables reuse
+	public static long MAX_FREE_BYTES = Runtime.getRuntime().maxMemory() / 2;
+
+	// Bytes per task in the parallel fill and copy
+	private static final int CHUNK_BYTES = 1 << 24;
+
+	private final List<byte[]> freeBytes = new ArrayList<>();
+	private final List<long[]> freeLongs = new ArrayList<>();
+	private long freeSize = 0;
+
+	private long allocated = 0;
+	private long reused = 0;
+	private long dropped = 0;
+
+	/** A byte array of the length with every element set to fill */
+	public byte[] bytes(int length, byte fill) {
+		byte[] array = takeBytes(length);
+		if (array == null) {
+			array = new byte[length];
+			if (fill == 0) return array;
+		}
+		byte[] target = array;
+		forChunks(length, CHUNK_BYTES, (from, to) -> Arrays.fill(target, from, to, fill));
+		return array;
+	}
+
+	/** A zeroed long array of the length */
+	public long[] longs(int length) {
+		long[] array = takeLongs(length);
+		if (array == null) return new long[length];
+		forChunks(length, CHUNK_BYTES / 8, (from, to) -> Arrays.fill(array, from, to, 0L));
+		return array;
+	}
+
+	/** A long array holding a copy of source */
+	public long[] copyOf(long[] source) {
+		long[] array = takeLongs(source.length);
+		if (array == null) return source.clone();
+		forChunks(source.length, CHUNK_BYTES / 8, (from, to) -> System.arraycopy(source, from, array, from, to - from));
+		return array;
+	}
+
+	/** Returns an array for reuse; the caller must drop every reference to it */
+	public void release(byte[] array) {
+		give(freeBytes, array, array.length);
+	}
+
+	public void release(long[] array) {
+		give(freeLongs, array, 8L * array.length);
+	}
+
+	private synchronized byte[] takeBytes(int length) {
+		for (int i = 0; i < freeBytes.size(); i++) {
+			if (freeBytes.get(i).length == length) {
+				freeSize -= length;
+				reused++;
+				return freeBytes.remove(i);
+			}
+		}
+		allocated++;
+		return null;
+	}
+
+	private synchronized long[] takeLongs(int length) {
+		for (int i = 0; i < freeLongs.size(); i++) {
+			if (freeLongs.get(i).length == length) {
+				freeSize -= 8L * length;
+				reused++;
+				return freeLongs.remove(i);
+			}
+		}
+		allocated++;
+		return null;
+	}
+
+	private synchronized <T> void give(List<T> free, T array, long size) {
+		// A second release of the same array would hand it to two owners
+		for (T held : free) {
+			if (held == array) return;
+		}
+		if (freeSize + size > MAX_FREE_BYTES) {
+			dropped++;
+			return;
+		}
+		free.add(array);
+		freeSize += size;
+	}
+
+	private interface Range {
+		void run(int from, int to);
+	}
+
+	// Splits [0, length) into chunks run on the common pool
+	private static void forChunks(int length, int chunk, Range range) {
+		List<Future<?>> futures = new ArrayList<>();
+		for (int start = 0; start < length; start += chunk) {
+			int from = start;
+			int to = Math.min(length, start + chunk);
+			futures.add(ForkJoinPool.commonPool().submit(() -> range.run(from, to)));
+		}
+		try {
+			for (Future<?> future : futures) future.get();
+		} catch (InterruptedException | ExecutionException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "Buffers: " + allocated + " allocated, " + reused + " reused, " + dropped + " dropped, "
+				+ (freeBytes.size() + freeLongs.size()) + " free (" + (freeSize >> 20) + " MB)";
+	}
+}
@@ -0,0 +1,181 @@
+package io.chandler.morajai;
+
+import static io.chandler.morajai.MoraJaiBox.Color.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import io.chandler.morajai.MJAnalysis.DepthTracker;
+import io.chandler.morajai.MoraJaiBox.Color;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+/**
+ * Solves the states whose color multiset is closed under presses ahead of the level scan.
+ *
+ * Gray, green, black, pink, purple and yellow presses only move tiles around, and blue mimics the
+ * center, which is then one of those colors too.  A state made only of these colors therefore
+ * never leaves its multiset class, which has at most 9! members.  Each class is solved as its own
+ * BFS from its goal states over a reverse successor table, in parallel.  Reachable members get
+ * their final depth written to the tracker, and the rest are marked dead.  The level scan then
+ * skips them, adding the per-depth totals to its own counts.
+ */
+class MJClosedClasses {
+
+	private static final Color[] PERMUTING = {C_GY, C_GN, C_BK, C_PI, C_PU, C_YE, C_BU};
+
+	private static final int[] FACTORIAL = {1, 1, 2, 6, 24, 120, 720, 5040, 40320, 362880};
+
+	/**
+	 * Must run after depth 0 and the color prune are in the tracker, and before the first level.
+	 * @param levelCounts Incremented by the number of states solved at each depth > 0
+	 * @param levelStates Tracker indices of the states solved at each depth, for MJTopDown; a depth
+	 *   whose count passes maxListed is set to null
+	 * @return Number of states marked dead
+	 */
+	static int solve(ExecutorService executor, DepthTracker depths, int[] levelCounts, IntArrayList[] levelStates, int maxListed) {
+		for (int d = 0; d < levelStates.length; d++) {
+			levelStates[d] = new IntArrayList();
+		}
+
+		List<Integer> colors = new ArrayList<>();
+		for (Color color : PERMUTING) {
+			if (depths.index.contains(color)) colors.add(color.ordinal());
+		}
+
+		List<int[]> multisets = new ArrayList<>();
+		multisets(colors.stream().mapToInt(Integer::intValue).toArray(), new int[Color.N_COLORS], 0, 9, multisets);
+
+		List<Future<Integer>> futures = new ArrayList<>();
+		for (int[] counts : multisets) {
+			futures.add(executor.submit(() -> solveClass(counts, depths, levelCounts, levelStates, maxListed)));
+		}
+
+		int dead = 0;
+		try {
+			for (Future<Integer> future : futures) {
+				dead += future.get();
+			}
+		} catch (InterruptedException | ExecutionException e) {
+			throw new RuntimeException(e);
+		}
+		return dead;
+	}
+
+	// Every way to place remaining tiles among colors[c..], as per-color counts
+	private static void multisets(int[] colors, int[] counts, int c, int remaining, List<int[]> out) {
+		if (c == colors.length - 1) {
+			counts[colors[c]] = remaining;
+			out.add(counts.clone());
+			return;
+		}
+		for (int n = 0; n <= remaining; n++) {
+			counts[colors[c]] = n;
+			multisets(colors, counts, c + 1, remaining - n, out);
+		}
+	}
+
+	private static int solveClass(int[] counts, DepthTracker depths, int[] levelCounts, IntArrayList[] levelStates, int maxListed) {
+		int size = FACTORIAL[9];
+		for (int n : counts) size /= FACTORIAL[n];
+
+		// Decimal states in ascending order, so successors can be found by binary search
+		int[] members = new int[size];
+		enumerate(counts.clone(), 8, 0, members, new int[1]);
+
+		// Local depths as read from the tracker: 0 for goals, DEAD if pruned, else UNREACHED
+		int[] local = new int[size];
+		boolean hasGoal = false;
+		for (int i = 0; i < size; i++) {
+			local[i] = depths.getDepth(depths.index.toIndex(members[i]));
+			if (local[i] == 0) hasGoal = true;
+		}
+
+		if (hasGoal) bfs(members, local);
+
+		int dead = 0;
+		int[] classCounts = new int[levelCounts.length];
+		IntArrayList solved = new IntArrayList();
+		for (int i = 0; i < size; i++) {
+			int state = depths.index.toIndex(members[i]);
+			if (local[i] > 0) {
+				depths.setDepth(state, local[i]);
+				classCounts[local[i]]++;
+				solved.add(state);
+			} else if (local[i] == DepthTracker.UNREACHED) {
+				// Closed class, so there is no path to a goal
+				depths.markDead(state);
+				dead++;
+			}
+		}
+		synchronized (levelCounts) {
+			for (int d = 0; d < levelCounts.length; d++) {
+				levelCounts[d] += classCounts[d];
+				if (levelCounts[d] > maxListed) levelStates[d] = null;
+			}
+			for (int i = 0; i < solved.size(); i++) {
+				int state = solved.getInt(i);
+				IntArrayList list = levelStates[depths.getDepth(state)];
+				if (list != null) list.add(state);
+			}
+		}
+		return dead;
+	}
+
+	// Digits from the highest tile down, smallest color first, gives ascending decimal order
+	private static void enumerate(int[] counts, int tile, int prefix, int[] out, int[] pos) {
+		if (tile < 0) {
+			out[pos[0]++] = prefix;
+			return;
+		}
+		for (int c = 0; c < Color.N_COLORS; c++) {
+			if (counts[c] == 0) continue;
+			counts[c]--;
+			enumerate(counts, tile - 1, prefix + c * MoraJaiBox.POW10[tile], out, pos);
+			counts[c]++;
+		}
+	}
+
+	// Breadth-first search backwards from the local goals through live members
+	private static void bfs(int[] members, int[] local) {
+		int size = members.length;
+
+		int[] successors = new int[size * 9];
+		int[] predecessorStart = new int[size + 1];
+		for (int i = 0; i < size; i++) {
+			MoraJaiBox.successors(members[i], StateCodec.pack(members[i]), successors, i * 9);
+			for (int j = i * 9; j < i * 9 + 9; j++) {
+				int s = Arrays.binarySearch(members, successors[j]);
+				successors[j] = s == i ? -1 : s;
+				if (s != i) predecessorStart[s + 1]++;
+			}
+		}
+		for (int i = 0; i < size; i++) {
+			predecessorStart[i + 1] += predecessorStart[i];
+		}
+		int[] predecessors = new int[predecessorStart[size]];
+		int[] fill = Arrays.copyOf(predecessorStart, size);
+		for (int i = 0; i < size * 9; i++) {
+			if (successors[i] >= 0) predecessors[fill[successors[i]]++] = i / 9;
+		}
+
+		int[] queue = new int[size];
+		int head = 0, tail = 0;
+		for (int i = 0; i < size; i++) {
+			if (local[i] == 0) queue[tail++] = i;
+		}
+		while (head < tail) {
+			int s = queue[head++];
+			for (int p = predecessorStart[s]; p < predecessorStart[s + 1]; p++) {
+				int pred = predecessors[p];
+				if (local[pred] == DepthTracker.UNREACHED) {
+					local[pred] = local[s] + 1;
+					queue[tail++] = pred;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,220 @@
+package io.chandler.morajai;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+
+import io.chandler.morajai.MoraJaiBox.Color;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+/**
+ * Depth analysis of a single puzzle, limited to the states reachable from its starting layout.
+ *
+ * The forward closure is found by BFS over MoraJaiBox.successors, numbering each state as it is
+ * reached through an open-addressing int hash map, so everything after that is indexed by the
+ * local number instead of the 1e9 decimal index.  The 9 successors of every state are kept, the
+ * reversed edges are laid out once, and the depths (presses to a goal) come from a BFS back from
+ * the goals inside the closure.  The backtracked states are found as MJDepthsBacktracker does,
+ * counting only predecessors inside the closure.
+ *
+ * Run with targets (4 color digits, as the box index) and a starting state (9 digits, tile 0 last).
+ */
+public class MJClosure {
+
+	public static final int UNREACHED = -1;
+
+	private final Color[] targetColors;
+	private final int start;
+
+	// Decimal state of each local number, in BFS order from the start
+	private final IntArrayList states = new IntArrayList();
+	// Local number of each decimal state in the closure
+	private final Int2IntOpenHashMap numbers = new Int2IntOpenHashMap();
+	// Local numbers of the 9 successors of each state
+	private final IntArrayList successors = new IntArrayList();
+	// Presses from each state to a goal, UNREACHED if it can't be solved
+	private int[] depths;
+	private boolean[] backtracked;
+	private int maxDepth = UNREACHED;
+
+	public MJClosure(Color[] targetColors, int start) {
+		this.targetColors = targetColors;
+		this.start = start;
+		numbers.defaultReturnValue(-1);
+		enumerate();
+		solve();
+		backtrack();
+	}
+
+	private void enumerate() {
+		int[] next = new int[9];
+		numbers.put(start, 0);
+		states.add(start);
+		for (int n = 0; n < states.size(); n++) {
+			MoraJaiBox.successors(states.getInt(n), next);
+			for (int tile = 0; tile < 9; tile++) {
+				int number = numbers.putIfAbsent(next[tile], states.size());
+				if (number < 0) {
+					number = states.size();
+					states.add(next[tile]);
+				}
+				successors.add(number);
+			}
+		}
+		numbers.trim();
+	}
+
+	private void solve() {
+		int size = states.size();
+		int[] edges = successors.elements();
+
+		// Reversed edges in CSR form, without the presses that leave a state unchanged
+		int[] offsets = new int[size + 1];
+		for (int n = 0; n < size; n++) {
+			for (int i = n * 9; i < n * 9 + 9; i++) {
+				if (edges[i] != n) offsets[edges[i] + 1]++;
+			}
+		}
+		for (int n = 0; n < size; n++) offsets[n + 1] += offsets[n];
+		int[] predecessors = new int[offsets[size]];
+		int[] fill = new int[size];
+		for (int n = 0; n < size; n++) {
+			for (int i = n * 9; i < n * 9 + 9; i++) {
+				int successor = edges[i];
+				if (successor != n) predecessors[offsets[successor] + fill[successor]++] = n;
+			}
+		}
+
+		depths = new int[size];
+		Arrays.fill(depths, UNREACHED);
+		int[] queue = new int[size];
+		int tail = 0;
+		MoraJaiBox box = new MoraJaiBox();
+		for (int n = 0; n < size; n++) {
+			box.initFromState(targetColors, states.getInt(n));
+			if (box.areInnerMatchingOuter()) {
+				depths[n] = 0;
+				queue[tail++] = n;
+			}
+		}
+		for (int head = 0; head < tail; head++) {
+			int n = queue[head];
+			maxDepth = depths[n];
+			for (int p = offsets[n]; p < offsets[n + 1]; p++) {
+				int predecessor = predecessors[p];
+				if (depths[predecessor] == UNREACHED) {
+					depths[predecessor] = depths[n] + 1;
+					queue[tail++] = predecessor;
+				}
+			}
+		}
+	}
+
+	// A state at depth d >= 1 is kept unless some state at depth d + 1 leads to it
+	private void backtrack() {
+		int size = states.size();
+		int[] edges = successors.elements();
+		backtracked = new boolean[size];
+		for (int n = 0; n < size; n++) {
+			backtracked[n] = depths[n] > 0;
+		}
+		for (int n = 0; n < size; n++) {
+			if (depths[n] <= 0) continue;
+			for (int i = n * 9; i < n * 9 + 9; i++) {
+				if (edges[i] != n && depths[edges[i]] == depths[n] - 1) backtracked[edges[i]] = false;
+			}
+		}
+	}
+
+	/** Number of states reachable from the start, including it */
+	public int size() {
+		return states.size();
+	}
+
+	/** Presses from a state in the closure to the nearest goal, UNREACHED if none or not in the closure */
+	public int getDepth(int state) {
+		int number = numbers.get(state);
+		return number < 0 ? UNREACHED : depths[number];
+	}
+
+	/** Presses the starting layout needs, UNREACHED if it can't be solved */
+	public int getStartDepth() {
+		return depths[0];
+	}
+
+	/** Largest depth in the closure, UNREACHED if it holds no goal */
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+
+	/** Decimal states at the depth, or the unsolvable ones for UNREACHED, in ascending order */
+	public IntArrayList statesAtDepth(int depth) {
+		IntArrayList result = new IntArrayList();
+		for (int n = 0; n < states.size(); n++) {
+			if (depths[n] == depth) result.add(states.getInt(n));
+		}
+		result.sort(null);
+		return result;
+	}
+
+	/** Decimal states at the depth that no state one press deeper leads to, in ascending order */
+	public IntArrayList backtrackedAtDepth(int depth) {
+		IntArrayList result = new IntArrayList();
+		for (int n = 0; n < states.size(); n++) {
+			if (backtracked[n] && depths[n] == depth) result.add(states.getInt(n));
+		}
+		result.sort(null);
+		return result;
+	}
+
+	/** Depth counts and backtracked states, in the format of the depth files, with the hardest states listed */
+	public void report(PrintStream out) {
+		out.println("Closure of " + start + " has " + size() + " states, start depth " + getStartDepth());
+		int unreached = 0;
+		int[] counts = new int[maxDepth + 1];
+		for (int depth : depths) {
+			if (depth == UNREACHED) unreached++;
+			else counts[depth]++;
+		}
+		for (int depth = 0; depth <= maxDepth; depth++) {
+			out.println("Depth " + depth + " has " + counts[depth] + " states");
+		}
+		out.println("Unsolvable: " + unreached + " states");
+		for (int depth = 0; depth <= maxDepth; depth++) {
+			IntArrayList list = backtrackedAtDepth(depth);
+			out.println("Backedtracked depth " + depth + " has " + list.size() + " states");
+			if (!list.isEmpty() && list.size() <= MJDepthsBacktracker.THRESHOLD) out.println(join(list));
+		}
+		if (maxDepth > 0) {
+			IntArrayList hardest = statesAtDepth(maxDepth);
+			out.println("Hardest: " + hardest.size() + " states at depth " + maxDepth);
+			if (hardest.size() <= MJDepthsBacktracker.THRESHOLD) out.println(join(hardest));
+		}
+	}
+
+	private static String join(IntArrayList list) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < list.size(); i++) {
+			if (i > 0) sb.append(',');
+			sb.append(list.getInt(i));
+		}
+		return sb.toString();
+	}
+
+	public static void main(String[] args) {
+		if (args.length < 2) {
+			System.err.println("Usage: MJClosure <targets, e.g. 1234> <start state, e.g. 123456789> [reportStates]");
+			System.exit(1);
+		}
+		int idx = Integer.parseInt(args[0]);
+		Color[] targetColors = new Color[] { Color.values()[idx/1000%10], Color.values()[idx/100%10], Color.values()[idx/10%10], Color.values()[idx%10] };
+		int start = Integer.parseInt(args[1]);
+		if (args.length > 2) MJDepthsBacktracker.THRESHOLD = Integer.parseInt(args[2]);
+
+		long time = System.nanoTime();
+		MJClosure closure = new MJClosure(targetColors, start);
+		long millis = (System.nanoTime() - time) / 1000000;
+		closure.report(System.out);
+		System.out.println("Analyzed in " + millis + "ms");
+	}
+}
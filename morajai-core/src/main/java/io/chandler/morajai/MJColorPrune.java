@@ -3,12 +3,11 @@ package io.chandler.morajai;
 import static io.chandler.morajai.MoraJaiBox.Color.*;
 
 import java.util.Arrays;
-import java.util.BitSet;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.function.Consumer;
+import java.util.concurrent.Future;
 
 import io.chandler.morajai.MoraJaiBox.Color;
 
@@ -25,79 +24,100 @@ public class MJColorPrune {
 	private static final int whiteOrd = C_WH.ordinal();
 	private static final int grayOrd = C_GY.ordinal();
 
-	public static int prune(ExecutorService executor, boolean noBlue, Color[] targetColors, Consumer<List<Integer>> markDead) {
+	/**
+	 * Marks states that can never match the targets in dead, at their StateIndex positions.
+	 * States holding a color outside the index's palette don't exist in it, so noBlue needs no check here.
+	 * Workers OR whole words into dead as they go, so it may be shared with other writers.
+	 * @return The number of states newly marked
+	 */
+	public static int prune(ExecutorService executor, StateIndex index, Color[] targetColors, MJConcurrentBitSet dead) {
+		return prune(executor, index, targetColors, (firstWord, words, count) -> {
+			int added = 0;
+			for (int w = 0; w < count; w++) added += dead.orWord(firstWord + w, words[w]);
+			return added;
+		});
+	}
 
-		int prunedDead = 0;
-	
-		// Process states in parallel chunks
-		int numChunks = 1000;
-		int chunkSize = 1000000000 / numChunks;
+	/**
+	 * prune into a compressed set, which holds the clustered dead states in far less than a bitset.
+	 * Chunks cover whole blocks of the set, so they fill it without a lock.
+	 */
+	public static int prune(ExecutorService executor, StateIndex index, Color[] targetColors, MJIntSet dead) {
+		return prune(executor, index, targetColors, (firstWord, words, count) -> dead.addWords(firstWord, words, 0, count));
+	}
 
-		AtomicInteger atomicProgressCount = new AtomicInteger(0);
-		AtomicInteger atomicDeadStatesCount = new AtomicInteger(0);
+	// Receives a finished chunk's dead bitset, returns the number of states newly marked
+	private interface DeadWords {
+		int add(int firstWord, long[] words, int count);
+	}
+
+	private static int prune(ExecutorService executor, StateIndex index, Color[] targetColors, DeadWords dead) {
 
-		Object updateLock = new Object();
+		// Process states in parallel chunks of whole MJIntSet blocks
+		int numChunks = 1000;
+		int blockSize = 1 << MJIntSet.BLOCK_BITS;
+		int chunkSize = ((index.size() + numChunks - 1) / numChunks + blockSize - 1) & -blockSize;
 
+		List<Future<Integer>> futures = new ArrayList<>();
 		for (int worker = 0; worker < numChunks; worker++) {
 			int chunkIndex = worker;
-			executor.submit(() -> {
-
-				int startState = chunkIndex * chunkSize;
-				int endState = Math.min(startState + chunkSize, 1000000000);
+			futures.add(executor.submit(() -> {
 
-				BitSet states = new BitSet();
+				int startState = (int) Math.min((long) chunkIndex * chunkSize, index.size());
+				int endState = Math.min(startState + chunkSize, index.size());
+				// Rounding to blocks can leave the last chunks empty
+				if (startState == endState) return 0;
 
-				int localProgressCount = 0;
+				long[] words = new long[(endState - startState + 63) >>> 6];
+				long word = 0;
 
 				byte[] cnt = new byte[10];
 
-				for (int state = startState; state < endState; state++) {
-					fillCounts(state, cnt);
-					localProgressCount++;
+				long packed = index.pack(startState);
+				for (int state = startState; state < endState; state++, packed = index.next(packed)) {
+					fillCounts(packed, cnt);
+					long bit = 1L << state;
 					int targetColorCount = 0;
 
-					if (noBlue && cnt[blueOrd] > 0) {
-						states.set(state-startState);
-					}
 					boolean containsWhite = false;
 					if ((targetColorCount = countTarget(targetColors, C_WH)) != 0) {
 						containsWhite = true;
 						// Can't materialize white
-						if (cnt[whiteOrd] == 0) states.set(state-startState);
+						if (cnt[whiteOrd] == 0) word |= bit;
 					}
 					if ((targetColorCount = countTarget(targetColors, C_GY)) != 0 || containsWhite) {
 						int graysAndWhites = cnt[grayOrd] + cnt[whiteOrd];
 						if (graysAndWhites == 0) {
-							states.set(state-startState);
+							word |= bit;
 						} else if (graysAndWhites < targetColorCount) {
 							// Orange and blue can both generate more white/gry
 							if (	cnt[orangeOrd] +
 										cnt[blueOrd] +
 										graysAndWhites
 										< targetColorCount) {
-								states.set(state-startState);
+								word |= bit;
 							}
 						}
 					}
-					if (basicColorPrune(targetColors, C_GN, greenOrd, cnt)) states.set(state-startState);
-					if (basicColorPrune(targetColors, C_YE, yellowOrd, cnt)) states.set(state-startState);
-					if (basicColorPrune(targetColors, C_PU, purpleOrd, cnt)) states.set(state-startState);
-					if (basicColorPrune(targetColors, C_PI, pinkOrd, cnt)) states.set(state-startState);
+					if (basicColorPrune(targetColors, C_GN, greenOrd, cnt)) word |= bit;
+					if (basicColorPrune(targetColors, C_YE, yellowOrd, cnt)) word |= bit;
+					if (basicColorPrune(targetColors, C_PU, purpleOrd, cnt)) word |= bit;
+					if (basicColorPrune(targetColors, C_PI, pinkOrd, cnt)) word |= bit;
 
 					// Orange
 					if ((targetColorCount = countTarget(targetColors, C_OR)) != 0) {
 						int oranges = cnt[orangeOrd];
 						if (oranges == 0) {
-							states.set(state-startState);
+							word |= bit;
 						} else if (oranges == 1) {
-							if (targetColorCount != 1) states.set(state-startState); 
+							if (targetColorCount != 1) word |= bit; 
 						} else if (oranges < targetColorCount) {
 							// Sum blue and gray and white
 							int bgw = cnt[blueOrd] > 0 ? cnt[grayOrd] + cnt[blueOrd] + cnt[whiteOrd] : 0;
 							int black = cnt[redOrd] > 0 && cnt[blueOrd] > 0 ? cnt[blackOrd] : 0;
 							// Simplified but good enough
 							if (oranges + bgw + black < targetColorCount) {
-								states.set(state-startState);
+								word |= bit;
 							}
 						}
 					}
@@ -106,7 +126,7 @@ public class MJColorPrune {
 					// Red is maybe the most complicated, keep it simple for now
 					if ((targetColorCount = countTarget(targetColors, C_RD)) != 0) {
 						// Ensure at least one red
-						if (reds == 0) states.set(state-startState);
+						if (reds == 0) word |= bit;
 						else {
 							// There's at least one red
 							if (reds < targetColorCount) {
@@ -114,7 +134,7 @@ public class MJColorPrune {
 								int orangeBluesBlack = cnt[orangeOrd] + cnt[blueOrd] + cnt[blackOrd];
 								int whitesAndGrays = cnt[whiteOrd] + cnt[grayOrd];
 								if (orangeBluesBlack + whitesAndGrays + reds < targetColorCount) {
-									states.set(state-startState);
+									word |= bit;
 								}
 							}
 						}
@@ -125,14 +145,14 @@ public class MJColorPrune {
 						if (reds == 0) {
 							// No red so black is a basic color
 							if (basicColorPrune(targetColors, C_BK, blackOrd, cnt)) {
-								states.set(state-startState);
+								word |= bit;
 							}
 						} else {
 							// For simplicity just sum all morphing combos
 							int orangeBluesBlack = cnt[orangeOrd] + cnt[blueOrd] + cnt[blackOrd];
 							int whitesAndGrays = cnt[whiteOrd] + cnt[grayOrd];
 							if (orangeBluesBlack + whitesAndGrays < targetColorCount) {
-								states.set(state-startState);
+								word |= bit;
 							}
 						}
 					}
@@ -146,54 +166,35 @@ public class MJColorPrune {
 
 						if (reds == 0) {
 							if (blue + whiteGray + orange < targetColorCount) {
-								states.set(state-startState);
+								word |= bit;
 							}
 						} else {
 							int black = cnt[blackOrd];
 							if (black + blue + whiteGray + orange < targetColorCount) {
-								states.set(state-startState);
+								word |= bit;
 							}
 
 						}
 					}
-				}
-
-
-
-				int countSetBits = 0;
-				List<Integer> deadStates = new ArrayList<>(1024);
 
-				// Iterate over all set bits
-				for (int i = states.nextSetBit(0); i >= 0; i = states.nextSetBit(i+1)) {
-					countSetBits++;
-					deadStates.add(i + startState);
-					if (deadStates.size() >= 1024) {
-						synchronized (updateLock) {
-							markDead.accept(deadStates);
-						}
-						deadStates.clear();
+					if ((state & 63) == 63 || state == endState - 1) {
+						words[(state - startState) >>> 6] = word;
+						word = 0;
 					}
 				}
 
-				synchronized (updateLock) {
-					markDead.accept(deadStates);
-					atomicDeadStatesCount.addAndGet(countSetBits);
-					atomicProgressCount.addAndGet(localProgressCount);
-				}
-			});
+				return dead.add(startState >>> 6, words, words.length);
+			}));
 		}
 
-		while (true) {
-			int completed = atomicProgressCount.get();
-			if (completed == 1000000000) break;
-			try {
-				Thread.sleep(500);
-			} catch (InterruptedException e) {
-				e.printStackTrace();
+		int prunedDead = 0;
+		try {
+			for (Future<Integer> future : futures) {
+				prunedDead += future.get();
 			}
+		} catch (InterruptedException | ExecutionException e) {
+			throw new RuntimeException(e);
 		}
-
-		prunedDead = atomicDeadStatesCount.get();
 		return prunedDead;
 	
 	}
@@ -208,11 +209,11 @@ public class MJColorPrune {
 		return count;
 	}
 
-	private static void fillCounts(int state, byte[] cnt) {
+	private static void fillCounts(long packed, byte[] cnt) {
 		Arrays.fill(cnt, (byte)0);
 		for (int i = 0; i < 9; i++) {
-			cnt[state % 10]++;
-			state /= 10;
+			cnt[(int)packed & 0xF]++;
+			packed >>>= 4;
 		}
 	}
 
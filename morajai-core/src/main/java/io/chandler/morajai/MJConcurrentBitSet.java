@@ -0,0 +1,202 @@
+package io.chandler.morajai;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntConsumer;
+
+/**
+ * Fixed-size bitset that worker threads can write without a lock.
+ *
+ * Bits are set with an atomic OR on their 64-bit word, so threads marking states in the same word
+ * never lose each other's bits.  Writers that build a whole word locally should use orWord, which
+ * is one atomic operation per 64 states.  The backing words are exposed for the GPU buffers; reads
+ * through them are only safe once the writers are done, e.g. after their futures complete.
+ */
+public final class MJConcurrentBitSet {
+
+	private static final VarHandle WORDS = MethodHandles.arrayElementVarHandle(long[].class);
+
+	// Words per task in the parallel operations
+	private static final int WORDS_PER_TASK = 1 << 16;
+
+	private final long[] words;
+	private final int size;
+
+	public MJConcurrentBitSet(int size) {
+		this(size, new long[(int) (((long) size + 63) >>> 6)]);
+	}
+
+	private MJConcurrentBitSet(int size, long[] words) {
+		this.size = size;
+		this.words = words;
+	}
+
+	/** An empty set on words from MJBufferPool.SHARED; release words() there when done */
+	public static MJConcurrentBitSet pooled(int size) {
+		return new MJConcurrentBitSet(size, MJBufferPool.SHARED.longs((int) (((long) size + 63) >>> 6)));
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/** The backing words, bit i at words[i >>> 6] & (1L << i) */
+	public long[] words() {
+		return words;
+	}
+
+	public boolean get(int i) {
+		return ((long) WORDS.getAcquire(words, i >>> 6) & (1L << i)) != 0;
+	}
+
+	/** Sets bit i, returns true if it was clear */
+	public boolean set(int i) {
+		long bit = 1L << i;
+		return ((long) WORDS.getAndBitwiseOr(words, i >>> 6, bit) & bit) == 0;
+	}
+
+	/** ORs bits into word w, returns the number of bits that were clear */
+	public int orWord(int w, long bits) {
+		if (bits == 0) return 0;
+		long old = (long) WORDS.getAndBitwiseOr(words, w, bits);
+		return Long.bitCount(bits & ~old);
+	}
+
+	public void clear(int i) {
+		WORDS.getAndBitwiseAnd(words, i >>> 6, ~(1L << i));
+	}
+
+	/** Sets bits [from, to), returns the number of bits that were clear */
+	public int setRange(int from, int to) {
+		if (from >= to) return 0;
+		int first = from >>> 6, last = (to - 1) >>> 6;
+		long firstMask = -1L << from, lastMask = -1L >>> -to;
+		if (first == last) return orWord(first, firstMask & lastMask);
+		int added = orWord(first, firstMask);
+		for (int w = first + 1; w < last; w++) added += orWord(w, -1L);
+		return added + orWord(last, lastMask);
+	}
+
+	/** Clears bits [from, to) */
+	public void clearRange(int from, int to) {
+		if (from >= to) return;
+		int first = from >>> 6, last = (to - 1) >>> 6;
+		long firstMask = -1L << from, lastMask = -1L >>> -to;
+		if (first == last) {
+			WORDS.getAndBitwiseAnd(words, first, ~(firstMask & lastMask));
+			return;
+		}
+		WORDS.getAndBitwiseAnd(words, first, ~firstMask);
+		for (int w = first + 1; w < last; w++) WORDS.setRelease(words, w, 0L);
+		WORDS.getAndBitwiseAnd(words, last, ~lastMask);
+	}
+
+	/** Set bits in [from, to) */
+	public int cardinality(int from, int to) {
+		if (from >= to) return 0;
+		int first = from >>> 6, last = (to - 1) >>> 6;
+		long firstMask = -1L << from, lastMask = -1L >>> -to;
+		if (first == last) return Long.bitCount(words[first] & firstMask & lastMask);
+		int count = Long.bitCount(words[first] & firstMask);
+		for (int w = first + 1; w < last; w++) count += Long.bitCount(words[w]);
+		return count + Long.bitCount(words[last] & lastMask);
+	}
+
+	/** Set bits, counted in parallel */
+	public long cardinality(ExecutorService executor) {
+		List<Future<Long>> futures = new ArrayList<>();
+		for (int start = 0; start < words.length; start += WORDS_PER_TASK) {
+			int wordStart = start;
+			int wordEnd = Math.min(start + WORDS_PER_TASK, words.length);
+			futures.add(executor.submit(() -> {
+				long count = 0;
+				for (int w = wordStart; w < wordEnd; w++) count += Long.bitCount(words[w]);
+				return count;
+			}));
+		}
+		long count = 0;
+		for (long part : join(futures)) count += part;
+		return count;
+	}
+
+	/** Calls action for each set bit in [from, to), in ascending order */
+	public void forEachSetBit(int from, int to, IntConsumer action) {
+		if (from >= to) return;
+		int first = from >>> 6, last = (to - 1) >>> 6;
+		for (int w = first; w <= last; w++) {
+			long word = words[w];
+			if (w == first) word &= -1L << from;
+			if (w == last) word &= -1L >>> -to;
+			while (word != 0) {
+				action.accept(w << 6 | Long.numberOfTrailingZeros(word));
+				word &= word - 1;
+			}
+		}
+	}
+
+	/** forEachSetBit over the whole set, split across the executor; the action must be thread safe */
+	public void forEachSetBit(ExecutorService executor, IntConsumer action) {
+		List<Future<Object>> futures = new ArrayList<>();
+		for (long start = 0; start < size; start += 64L * WORDS_PER_TASK) {
+			int bitStart = (int) start;
+			int bitEnd = (int) Math.min(start + 64L * WORDS_PER_TASK, size);
+			futures.add(executor.submit(() -> forEachSetBit(bitStart, bitEnd, action), null));
+		}
+		join(futures);
+	}
+
+	private static <T> List<T> join(List<Future<T>> futures) {
+		List<T> results = new ArrayList<>(futures.size());
+		try {
+			for (Future<T> future : futures) results.add(future.get());
+		} catch (InterruptedException | ExecutionException e) {
+			throw new RuntimeException(e);
+		}
+		return results;
+	}
+
+	/**
+	 * Throughput of a contended set() against the word-at-a-time orWord the prune uses, on [threads] threads.
+	 */
+	public static void main(String[] args) {
+		int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		int size = 100_000_007;
+		List<Future<Object>> futures = new ArrayList<>();
+
+		for (int run = 0; run < 3; run++) {
+			MJConcurrentBitSet perBit = new MJConcurrentBitSet(size);
+			long time = System.nanoTime();
+			futures.clear();
+			for (int t = 0; t < threads; t++) {
+				int stripe = t;
+				futures.add(executor.submit(() -> {
+					for (int i = stripe; i < size; i += threads) perBit.set(i);
+				}, null));
+			}
+			join(futures);
+			long perBitNanos = System.nanoTime() - time;
+
+			MJConcurrentBitSet perWord = new MJConcurrentBitSet(size);
+			time = System.nanoTime();
+			futures.clear();
+			int wordCount = perWord.words().length;
+			for (int t = 0; t < threads; t++) {
+				int stripe = t;
+				futures.add(executor.submit(() -> {
+					for (int w = stripe; w < wordCount; w += threads) perWord.orWord(w, w == wordCount - 1 ? -1L >>> -size : -1L);
+				}, null));
+			}
+			join(futures);
+			long perWordNanos = System.nanoTime() - time;
+			System.out.printf("set %.2f ns/bit, orWord %.3f ns/bit, %d bits%n", perBitNanos / (double) size, perWordNanos / (double) size, perWord.cardinality(executor));
+		}
+		executor.shutdown();
+	}
+}
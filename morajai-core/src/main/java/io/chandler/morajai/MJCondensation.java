@@ -0,0 +1,332 @@
+package io.chandler.morajai;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.IntBinaryOperator;
+
+import io.chandler.morajai.MJAnalysis.DepthTracker;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+
+/**
+ * Strongly connected components of the move graph and their condensation DAG.
+ *
+ * Presses never read the targets while outers are inactive, so one graph serves every box; only
+ * the goal set differs.  main is the one-time offline job, writing two files per StateIndex:
+ *  - scc_<palette>.components: component id of each index, little-endian int32
+ *  - scc_<palette>.dag: int size, int components, then per component in id order a varint
+ *    out-degree and its ascending successor ids as varint deltas
+ * Ids follow Tarjan completion order, so every DAG edge points to a smaller id.
+ *
+ * markDead then resolves which components can reach the box's goals in one streaming pass over
+ * the DAG and marks the rest dead before the first level.
+ *
+ * The job keeps an int per state plus the DFS and component stacks in memory: around 4 GB
+ * for noBlue and 10+ GB for the full palette.
+ */
+public class MJCondensation {
+
+	private static final int DEGREE = 9;
+	private static final int MARK_CHUNK = 1 << 24;
+
+	static String baseName(StateIndex index) {
+		return index.isIdentity() ? "scc_full" : "scc_noBlue";
+	}
+
+	public static boolean exists(Path dir, StateIndex index) {
+		return Files.exists(dir.resolve(baseName(index) + ".components")) && Files.exists(dir.resolve(baseName(index) + ".dag"));
+	}
+
+	/**
+	 * Marks unreached states whose component can't reach a depth 0 state as dead
+	 * @return Number of states marked dead
+	 */
+	public static int markDead(Path dir, ExecutorService executor, DepthTracker depths) throws IOException {
+		String base = baseName(depths.index);
+		Path componentsFile = dir.resolve(base + ".components");
+		if (Files.size(componentsFile) != depths.size() * 4L) {
+			throw new IOException(componentsFile + " doesn't match the state index");
+		}
+
+		try (FileChannel channel = FileChannel.open(componentsFile, StandardOpenOption.READ);
+				DataInputStream dag = new DataInputStream(new BufferedInputStream(Files.newInputStream(dir.resolve(base + ".dag")), 1 << 20))) {
+			if (dag.readInt() != depths.size()) throw new IOException(base + ".dag doesn't match the state index");
+			int numComponents = dag.readInt();
+			long[] reaches = new long[(numComponents + 63) / 64];
+
+			// Seed with the components holding live goals
+			ByteBuffer buffer = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+			for (int state = 0; state < depths.size(); state++) {
+				if (depths.getDepth(state) != 0) continue;
+				buffer.clear();
+				channel.read(buffer, state * 4L);
+				set(reaches, buffer.getInt(0));
+			}
+
+			// Successors always have smaller ids, so one pass in id order settles every component
+			for (int c = 0; c < numComponents; c++) {
+				int degree = readVarint(dag);
+				int successor = 0;
+				boolean reach = isSet(reaches, c);
+				for (int e = 0; e < degree; e++) {
+					successor += readVarint(dag);
+					if (!reach && isSet(reaches, successor)) reach = true;
+				}
+				if (reach) set(reaches, c);
+			}
+
+			List<Future<Integer>> futures = new ArrayList<>();
+			for (int start = 0; start < depths.size(); start += MARK_CHUNK) {
+				int chunkStart = start;
+				int chunkEnd = (int) Math.min((long) start + MARK_CHUNK, depths.size());
+				futures.add(executor.submit(() -> {
+					IntBuffer components = channel.map(FileChannel.MapMode.READ_ONLY, chunkStart * 4L, (chunkEnd - chunkStart) * 4L)
+						.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+					int dead = 0;
+					for (int state = chunkStart; state < chunkEnd; state++) {
+						if (depths.isUnreached(state) && !isSet(reaches, components.get(state - chunkStart))) {
+							depths.markDead(state);
+							dead++;
+						}
+					}
+					return dead;
+				}));
+			}
+
+			int dead = 0;
+			for (Future<Integer> future : futures) {
+				dead += future.get();
+			}
+			return dead;
+		} catch (InterruptedException | ExecutionException e) {
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * Pearce's space-efficient variant of Tarjan's algorithm, iterative, over a graph with DEGREE
+	 * successors per node.  Each component's out-edges are streamed to dag as it completes.
+	 * @return Component id of each node
+	 */
+	static int[] components(int size, IntBinaryOperator successor, OutputStream dag) throws IOException {
+		// Position in the DFS while a node is live, N - 1 - component id once it completes
+		int[] rindex = new int[size];
+		IntStack frames = new IntStack();
+		// Next successor to visit, with bit 4 set while the frame is still a candidate root
+		ByteStack tiles = new ByteStack();
+		IntStack stack = new IntStack();
+		IntOpenHashSet targets = new IntOpenHashSet();
+
+		int index = 1;
+		int c = size - 1;
+		long visited = 0;
+
+		for (int start = 0; start < size; start++) {
+			if (rindex[start] != 0) continue;
+			rindex[start] = index++;
+			frames.push(start);
+			tiles.push((byte) 0x10);
+
+			while (frames.size > 0) {
+				int v = frames.peek();
+				int tile = tiles.peek() & 0xF;
+				if (tile < DEGREE) {
+					tiles.set((byte) (tiles.peek() + 1));
+					int w = successor.applyAsInt(v, tile);
+					if (rindex[w] == 0) {
+						rindex[w] = index++;
+						frames.push(w);
+						tiles.push((byte) 0x10);
+					} else if (rindex[w] < rindex[v]) {
+						rindex[v] = rindex[w];
+						tiles.set((byte) (tiles.peek() & 0xF));
+					}
+					continue;
+				}
+
+				boolean root = (tiles.peek() & 0x10) != 0;
+				frames.pop();
+				tiles.pop();
+				if (root) {
+					index--;
+					int top = stack.size;
+					while (stack.size > 0 && rindex[v] <= rindex[stack.peek()]) {
+						rindex[stack.pop()] = c;
+						index--;
+					}
+					rindex[v] = c;
+					writeEdges(v, stack.array, stack.size, top, c, size, rindex, successor, targets, dag);
+					c--;
+				} else {
+					stack.push(v);
+				}
+
+				if (frames.size > 0) {
+					int parent = frames.peek();
+					if (rindex[v] < rindex[parent]) {
+						rindex[parent] = rindex[v];
+						tiles.set((byte) (tiles.peek() & 0xF));
+					}
+				}
+
+				if (++visited % 10000000 == 0) {
+					System.out.println("Completed " + visited + " states, " + (size - 1 - c) + " components");
+				}
+			}
+		}
+
+		for (int i = 0; i < size; i++) {
+			rindex[i] = size - 1 - rindex[i];
+		}
+		return rindex;
+	}
+
+	// Out-edges of the component v + members[from, to), which all hold rindex == c
+	private static void writeEdges(int v, int[] members, int from, int to, int c, int size, int[] rindex,
+			IntBinaryOperator successor, IntOpenHashSet targets, OutputStream dag) throws IOException {
+		targets.clear();
+		addTargets(v, c, size, rindex, successor, targets);
+		for (int m = from; m < to; m++) {
+			addTargets(members[m], c, size, rindex, successor, targets);
+		}
+		int[] sorted = targets.toIntArray();
+		Arrays.sort(sorted);
+		writeVarint(dag, sorted.length);
+		int previous = 0;
+		for (int target : sorted) {
+			writeVarint(dag, target - previous);
+			previous = target;
+		}
+	}
+
+	private static void addTargets(int u, int c, int size, int[] rindex, IntBinaryOperator successor, IntOpenHashSet targets) {
+		for (int tile = 0; tile < DEGREE; tile++) {
+			int w = successor.applyAsInt(u, tile);
+			// Completed earlier, so rindex already holds its final component
+			if (rindex[w] != c) targets.add(size - 1 - rindex[w]);
+		}
+	}
+
+	private static void writeVarint(OutputStream out, int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			out.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+
+	private static int readVarint(InputStream in) throws IOException {
+		int value = 0;
+		for (int shift = 0; ; shift += 7) {
+			int b = in.read();
+			if (b < 0) throw new IOException("Truncated DAG");
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) return value;
+		}
+	}
+
+	private static void set(long[] bits, int i) {
+		bits[i >> 6] |= 1L << (i & 63);
+	}
+
+	private static boolean isSet(long[] bits, int i) {
+		return (bits[i >> 6] & (1L << (i & 63))) != 0;
+	}
+
+	private static class IntStack {
+		int[] array = new int[1 << 16];
+		int size = 0;
+
+		void push(int value) {
+			if (size == array.length) array = Arrays.copyOf(array, (int) Math.min(Integer.MAX_VALUE - 8, array.length * 2L));
+			array[size++] = value;
+		}
+
+		int pop() {
+			return array[--size];
+		}
+
+		int peek() {
+			return array[size - 1];
+		}
+	}
+
+	private static class ByteStack {
+		byte[] array = new byte[1 << 16];
+		int size = 0;
+
+		void push(byte value) {
+			if (size == array.length) array = Arrays.copyOf(array, (int) Math.min(Integer.MAX_VALUE - 8, array.length * 2L));
+			array[size++] = value;
+		}
+
+		void pop() {
+			size--;
+		}
+
+		byte peek() {
+			return array[size - 1];
+		}
+
+		void set(byte value) {
+			array[size - 1] = value;
+		}
+	}
+
+	/**
+	 * Offline job: MJCondensation <outputDir> [noBlue]
+	 */
+	public static void main(String[] args) throws IOException {
+		Path dir = Paths.get(args.length > 0 ? args[0] : "results");
+		StateIndex index = StateIndex.forNoBlue(args.length > 1 && args[1].equals("noBlue"));
+		String base = baseName(index);
+		long time = System.currentTimeMillis();
+
+		int[] components;
+		Path dagFile = dir.resolve(base + ".dag");
+		try (DataOutputStream dag = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(dagFile), 1 << 20))) {
+			// Header counts are patched in once known
+			dag.writeInt(index.size());
+			dag.writeInt(0);
+			components = components(index.size(), (v, tile) -> {
+				int state = index.toState(v);
+				return index.toIndex(state + MoraJaiBox.pressDelta(StateCodec.pack(state), tile));
+			}, dag);
+		}
+		int numComponents = 0;
+		for (int id : components) numComponents = Math.max(numComponents, id + 1);
+		try (FileChannel channel = FileChannel.open(dagFile, StandardOpenOption.WRITE)) {
+			channel.write(ByteBuffer.allocate(4).putInt(0, numComponents), 4);
+		}
+
+		try (FileChannel channel = FileChannel.open(dir.resolve(base + ".components"),
+				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			for (int start = 0; start < components.length; start += MARK_CHUNK) {
+				int end = Math.min(start + MARK_CHUNK, components.length);
+				MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, start * 4L, (end - start) * 4L);
+				out.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().put(components, start, end - start);
+			}
+		}
+
+		System.out.println(numComponents + " components written to " + dir.resolve(base) + ".* in " + (System.currentTimeMillis() - time) + "ms");
+	}
+}
@@ -10,34 +10,29 @@ public class MJDepthsBacktracker {
 
 	public static int THRESHOLD = 2000;
 
-	private final MoraJaiBox.Color[] targetColors;
-	{
-		targetColors = new MoraJaiBox.Color[4];
-		for (int i = 0; i < 4; i++) {
-			targetColors[i] = MoraJaiBox.Color.C_GY;
-		}
-	}
-
 	private final DepthTracker depths;
-	private final long[] eliminated = new long[1000000000/64];
+	private final StateIndex index;
+	private final long[] eliminated;
 	private int maxDepth = 0;
 
 	public MJDepthsBacktracker(DepthTracker depths) {
 		this.depths = depths;
+		this.index = depths.index;
+		this.eliminated = MJBufferPool.SHARED.longs((depths.size() + 63) / 64);
 	}
 
 	public void backtrack() {
-		MoraJaiBox box = new MoraJaiBox();
-		for (int i = 0; i < 1000000000; i++) {
+		int[] successors = new int[9];
+		long packed = index.pack(0);
+		for (int i = 0; i < depths.size(); i++, packed = index.next(packed)) {
 			int state = i;
 			int depth = depths.getDepth(state);
 			maxDepth = Math.max(maxDepth, depth);
 			if (depth > 0) {
-				box.initFromState(targetColors, state);
+				MoraJaiBox.successors(StateCodec.unpack(packed), packed, successors);
+				index.toIndex(successors, 9);
 				for (int j = 0; j < 9; j++) {
-					box.reset();
-					box.pressTile(j);
-					int newState = box.getState();
+					int newState = successors[j];
 					if (newState != state) {
 						int newDepth = depths.getDepth(newState);
 						if (newDepth == depth-1) {
@@ -57,7 +52,7 @@ public class MJDepthsBacktracker {
 		for (int i = 0; i < eliminated.length; i++) {
 			long e = eliminated[i];
 			if (e != -1L) {
-				for (int j = 0; j < 64; j++) {
+				for (int j = 0; j < 64 && i * 64 + j < depths.size(); j++) {
 					if (!isSet(eliminated, i * 64 + j)) {
 						int depth = depths.getDepth(i * 64 + j);
 						results[depth]++;
@@ -67,7 +62,8 @@ public class MJDepthsBacktracker {
 								list = new ArrayList<>();
 								resultsMap.put(depth, list);
 							}
-							list.add(i * 64 + j);
+							// Index order matches decimal order, so the lists come out sorted as before
+							list.add(index.toState(i * 64 + j));
 						}
 					}
 				}
@@ -88,6 +84,11 @@ public class MJDepthsBacktracker {
 		}
 	}
 
+	// Returns the eliminated set to MJBufferPool once the results are reported
+	public void close() {
+		MJBufferPool.SHARED.release(eliminated);
+	}
+
 	private void set(long[] depths, int state) {
 		int idx = state >> 6;             // state / 64
 		depths[idx] |= 1L << (state & 63);
@@ -0,0 +1,280 @@
+package io.chandler.morajai;
+
+import static io.chandler.morajai.MoraJaiBox.Color.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+import io.chandler.morajai.MoraJaiBox.Color;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+/**
+ * External-memory BFS for nodes without room for the 1 GB depth tracker.
+ *
+ * Every level and the set of visited states live in sorted run files (see MJRunFile) in a scratch
+ * directory under the storage directory.  A level is found top-down, as in MJTopDown: the
+ * predecessors of the previous level are generated into a fixed buffer, which is sorted and
+ * spilled as a run whenever it fills.  One merge pass over the spilled runs and the visited run
+ * then writes the new level (candidates not yet visited) and the new visited run (their union).
+ *
+ * The backtracked states of depth d are the level d states that aren't a successor of any level
+ * d + 1 state, found the same way with successors and a difference instead of a union.
+ *
+ * Memory is the spill buffer plus one small buffer per open run, independent of the index size;
+ * disk use peaks around a few bytes per candidate of the largest level.  Output files match
+ * MJAnalysis.  No pruning is needed, as pruned states have no path to the goals.
+ */
+public class MJExternalAnalysis {
+
+	// Ints in the spill buffer, 16 MB
+	public static int BUFFER_STATES = 1 << 22;
+	// Most runs merged at once; more are merged in groups first
+	private static final int MAX_FAN_IN = 128;
+
+	private final Path storageDir;
+	private final Color[] targetColors;
+	private final boolean noBlue;
+	private final StateIndex index;
+
+	// Neighbors of an index in the move graph, returns the number written to out at offset
+	private interface Neighbors {
+		int of(int state, int[] out, int offset);
+	}
+
+	public MJExternalAnalysis(Path storageDir, Color[] targetColors, boolean noBlue) {
+		this(storageDir, targetColors, noBlue, StateIndex.forNoBlue(noBlue));
+	}
+
+	MJExternalAnalysis(Path storageDir, Color[] targetColors, boolean noBlue, StateIndex index) {
+		this.storageDir = storageDir;
+		this.targetColors = targetColors;
+		this.noBlue = noBlue;
+		this.index = index;
+	}
+
+	public void fullDepthAnalysis(int idx, Consumer<MJAnalysisStats> statsUpdate) {
+
+		String filename = noBlue ? "_noBlue" : "";
+		for (Color color : targetColors) {
+			if (noBlue && color == C_BU) return;
+			filename += "_" + color.name();
+		}
+		MJAnalysisStats stats = new MJAnalysisStats(idx, filename);
+		statsUpdate.accept(stats);
+
+		Path scratch = storageDir.resolve("external_" + idx + filename);
+		try (PrintStream out = new PrintStream(new File(storageDir.resolve("depths_v3_" + idx + filename + ".txt").toString()))) {
+			out.println("Starting analysis for " + idx + " " + filename + " with CPU - pruner: " + false);
+			Files.createDirectories(scratch);
+
+			int[] buffer = new int[BUFFER_STATES];
+			// Numbers the spilled run files
+			int[] spillCount = new int[1];
+
+			IntArrayList goals = new IntArrayList();
+			int counter = generateDepth0(goals);
+			goals.sort(null);
+			List<Path> levels = new ArrayList<>();
+			levels.add(scratch.resolve("level_0.run"));
+			try (MJRunFile.Writer level = new MJRunFile.Writer(levels.get(0))) {
+				level.addSorted(goals.elements(), goals.size());
+			}
+			Path visited = levels.get(0);
+			stats.begun = true;
+			statsUpdate.accept(stats);
+
+			// Predecessors as indices, dropping those outside the palette
+			Neighbors predecessors = (state, outStates, offset) -> {
+				int decimal = index.toState(state);
+				int count = MoraJaiBox.predecessors(decimal, StateCodec.pack(decimal), outStates, offset);
+				int kept = offset;
+				for (int i = offset; i < offset + count; i++) {
+					int predecessor = index.toIndex(outStates[i]);
+					if (predecessor >= 0) outStates[kept++] = predecessor;
+				}
+				return kept - offset;
+			};
+
+			int counterAccum = 0;
+			int depth = 0;
+			while (counter > 0) {
+				counterAccum += counter;
+				stats.unreached = index.size() - counterAccum;
+				stats.depth = depth;
+				stats.statesAtDepth = counter;
+				statsUpdate.accept(stats);
+
+				out.println("Depth " + depth + " has " + counter + " states");
+				depth++;
+
+				long scanStart = System.nanoTime();
+				List<Path> runs = spill(levels.get(depth - 1), predecessors, MoraJaiBox.MAX_PREDECESSORS, buffer, scratch, spillCount);
+				long commitStart = System.nanoTime();
+
+				// One pass writes the new level and the new visited run
+				Path level = scratch.resolve("level_" + depth + ".run");
+				Path nextVisited = scratch.resolve("visited_" + depth + ".run");
+				try (MJRunFile.Source candidates = merged(runs, scratch, spillCount);
+						MJRunFile.Reader old = new MJRunFile.Reader(visited);
+						MJRunFile.Writer levelOut = new MJRunFile.Writer(level);
+						MJRunFile.Writer visitedOut = new MJRunFile.Writer(nextVisited)) {
+					while (candidates.hasNext()) {
+						int candidate = candidates.next();
+						while (old.hasNext() && old.peek() < candidate) visitedOut.add(old.next());
+						if (old.hasNext() && old.peek() == candidate) continue;
+						levelOut.add(candidate);
+						visitedOut.add(candidate);
+					}
+					visitedOut.addAll(old);
+					counter = (int) levelOut.count();
+				}
+				deleteAll(runs);
+				if (!visited.equals(levels.get(0))) Files.delete(visited);
+				visited = nextVisited;
+				levels.add(level);
+
+				stats.scanMillis = (commitStart - scanStart) / 1000000;
+				stats.commitMillis = (System.nanoTime() - commitStart) / 1000000;
+			}
+			Files.delete(visited);
+
+			stats.backtracking = true;
+			statsUpdate.accept(stats);
+			// The last level is empty
+			int maxDepth = levels.size() - 2;
+			backtrack(out, index, levels, maxDepth, buffer, scratch, spillCount);
+			deleteAll(levels);
+			stats.backtracking = false;
+			statsUpdate.accept(stats);
+
+			stats.complete = true;
+			out.println("Complete");
+			statsUpdate.accept(stats);
+
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			try {
+				Files.deleteIfExists(scratch);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Reports the states of each level with no successor in the level above, as MJDepthsBacktracker does
+	 * @param levels Sorted runs of the indices at each depth, from 0 to at least maxDepth
+	 */
+	static void backtrack(PrintStream out, StateIndex index, List<Path> levels, int maxDepth, int[] buffer, Path scratch, int[] spillCount) throws IOException {
+		int[] successors = new int[9];
+		Neighbors moves = (state, outStates, offset) -> {
+			long packed = index.pack(state);
+			MoraJaiBox.successors(StateCodec.unpack(packed), packed, successors);
+			index.toIndex(successors, 9);
+			int count = 0;
+			for (int j = 0; j < 9; j++) {
+				if (successors[j] != state) outStates[offset + count++] = successors[j];
+			}
+			return count;
+		};
+
+		// Depth 0 states are never reported
+		out.println("Backedtracked depth 0 has 0 states");
+		for (int depth = 1; depth <= maxDepth; depth++) {
+			List<Path> runs = depth < maxDepth ? spill(levels.get(depth + 1), moves, 9, buffer, scratch, spillCount) : new ArrayList<>();
+			int count = 0;
+			StringBuilder list = new StringBuilder();
+			try (MJRunFile.Source covered = merged(runs, scratch, spillCount);
+					MJRunFile.Reader level = new MJRunFile.Reader(levels.get(depth))) {
+				while (level.hasNext()) {
+					int state = level.next();
+					while (covered.hasNext() && covered.peek() < state) covered.next();
+					if (covered.hasNext() && covered.peek() == state) continue;
+					count++;
+					if (count <= MJDepthsBacktracker.THRESHOLD) {
+						if (list.length() > 0) list.append(',');
+						list.append(index.toState(state));
+					}
+				}
+			}
+			deleteAll(runs);
+			out.println("Backedtracked depth " + depth + " has " + count + " states");
+			if (count > 0 && count <= MJDepthsBacktracker.THRESHOLD) out.println(list);
+		}
+	}
+
+	/**
+	 * Writes the neighbors of every state in the level as sorted runs, one per filled buffer
+	 * @param most Largest number of neighbors of a single state
+	 */
+	private static List<Path> spill(Path level, Neighbors neighbors, int most, int[] buffer, Path scratch, int[] spillCount) throws IOException {
+		List<Path> runs = new ArrayList<>();
+		int count = 0;
+		try (MJRunFile.Reader states = new MJRunFile.Reader(level)) {
+			while (states.hasNext()) {
+				if (count > buffer.length - most) {
+					runs.add(writeRun(buffer, count, scratch, spillCount));
+					count = 0;
+				}
+				count += neighbors.of(states.next(), buffer, count);
+			}
+		}
+		if (count > 0) runs.add(writeRun(buffer, count, scratch, spillCount));
+		return runs;
+	}
+
+	private static Path writeRun(int[] buffer, int count, Path scratch, int[] spillCount) throws IOException {
+		Arrays.sort(buffer, 0, count);
+		Path run = scratch.resolve("spill_" + spillCount[0]++ + ".run");
+		try (MJRunFile.Writer writer = new MJRunFile.Writer(run)) {
+			writer.addSorted(buffer, count);
+		}
+		return run;
+	}
+
+	// Union of the runs as one source, merging groups of them into new runs first while there are too many to open at once
+	private static MJRunFile.Source merged(List<Path> runs, Path scratch, int[] spillCount) throws IOException {
+		while (runs.size() > MAX_FAN_IN) {
+			List<Path> group = new ArrayList<>(runs.subList(0, MAX_FAN_IN));
+			Path run = scratch.resolve("spill_" + spillCount[0]++ + ".run");
+			try (MJRunFile.Source source = open(group);
+					MJRunFile.Writer writer = new MJRunFile.Writer(run)) {
+				writer.addAll(source);
+			}
+			deleteAll(group);
+			runs.subList(0, MAX_FAN_IN).clear();
+			runs.add(run);
+		}
+		return runs.isEmpty() ? MJRunFile.EMPTY : open(runs);
+	}
+
+	private static MJRunFile.Source open(List<Path> runs) throws IOException {
+		List<MJRunFile.Reader> readers = new ArrayList<>();
+		for (Path run : runs) readers.add(new MJRunFile.Reader(run));
+		return new MJRunFile.Merge(readers);
+	}
+
+	static void deleteAll(List<Path> paths) throws IOException {
+		for (Path path : paths) Files.deleteIfExists(path);
+	}
+
+	// Adds the goal indices in the palette to goals, returns the number of goals as MJAnalysis counts them
+	private int generateDepth0(IntArrayList goals) {
+		int[] counter = new int[1];
+		MoraJaiBox.forEachGoal(targetColors, goal -> {
+			// Goal states outside the palette are still counted, as they were when pruned dead in the full index
+			int state = index.toIndex(goal);
+			if (state >= 0) goals.add(state);
+			counter[0]++;
+		});
+		return counter[0];
+	}
+}
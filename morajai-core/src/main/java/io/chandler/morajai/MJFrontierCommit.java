@@ -0,0 +1,128 @@
+package io.chandler.morajai;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import io.chandler.morajai.MJAnalysis.DepthTracker;
+
+/**
+ * Host side of a bitset level: after next has been found, current joins reached and every next
+ * state gets its depth in the tracker.
+ *
+ * Word ranges are independent, so chunks run in parallel, count next with bitCount and walk its
+ * set bits with numberOfTrailingZeros instead of testing all 64 bits of every word.  current is
+ * cleared on the way, so the caller swaps the current and next arrays instead of copying.
+ * Shared by MJAnalysisGPU and MJBitsetAnalysis; MJFrontierCommitTest checks it against the serial
+ * loop it replaced, and main times the two.
+ */
+class MJFrontierCommit {
+
+	private static final int CHUNKS_PER_THREAD = 8;
+	// Smallest chunk worth a task
+	private static final int MIN_CHUNK_WORDS = 1 << 12;
+
+	/**
+	 * reached |= current, current = 0, and depth written for each state in next
+	 * @return The number of states in next
+	 */
+	static int commit(ExecutorService executor, int threads, long[] reached, long[] current, long[] next, DepthTracker depths, int depth) {
+		int words = reached.length;
+		int numChunks = Math.max(1, Math.min(threads * CHUNKS_PER_THREAD, words / MIN_CHUNK_WORDS));
+		int chunkSize = (words + numChunks - 1) / numChunks;
+
+		List<Future<Integer>> futures = new ArrayList<>();
+		for (int chunk = 0; chunk < numChunks; chunk++) {
+			int start = (int) Math.min((long) chunk * chunkSize, words);
+			int end = Math.min(start + chunkSize, words);
+			futures.add(executor.submit(() -> commitRange(reached, current, next, depths, depth, start, end)));
+		}
+
+		int counter = 0;
+		try {
+			for (Future<Integer> future : futures) {
+				counter += future.get();
+			}
+		} catch (InterruptedException | ExecutionException e) {
+			throw new RuntimeException(e);
+		}
+		return counter;
+	}
+
+	private static int commitRange(long[] reached, long[] current, long[] next, DepthTracker depths, int depth, int start, int end) {
+		int count = 0;
+		for (int w = start; w < end; w++) {
+			reached[w] |= current[w];
+			current[w] = 0;
+			long bits = next[w];
+			if (bits == 0) continue;
+			count += Long.bitCount(bits);
+			do {
+				depths.setDepth(w << 6 | Long.numberOfTrailingZeros(bits), depth);
+				bits &= bits - 1;
+			} while (bits != 0);
+		}
+		return count;
+	}
+
+	// The serial per-bit loop MJAnalysisGPU used, as the reference for the test and main
+	static int commitSerial(long[] reached, long[] current, long[] next, DepthTracker depths, int depth) {
+		int counter = 0;
+		for (int i = 0; i < next.length; i++) {
+			for (int j = 0; j < 64; j++) {
+				if ((next[i] & (1L << j)) != 0) counter++;
+			}
+		}
+		for (int i = 0; i < reached.length; i++) {
+			reached[i] |= current[i];
+			for (int j = 0; j < 64; j++) {
+				if ((next[i] & (1L << j)) != 0) depths.setDepth(i * 64 + j, depth);
+			}
+			current[i] = 0;
+		}
+		return counter;
+	}
+
+	/**
+	 * Times commit against the serial loop over the noBlue index, on [threads] threads.
+	 */
+	public static void main(String[] args) {
+		int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		Random random = new Random(1);
+
+		StateIndex index = StateIndex.NO_BLUE;
+		int words = (index.size() + 63) >>> 6;
+		DepthTracker depths = new DepthTracker(index);
+		for (double density : new double[] {1e-4, 0.05}) {
+			long[][] level = randomLevel(random, words, density, index.size());
+			for (int run = 0; run < 3; run++) {
+				long time = System.nanoTime();
+				commitSerial(level[0], level[1].clone(), level[2], depths, 7);
+				long serialNanos = System.nanoTime() - time;
+				time = System.nanoTime();
+				commit(executor, threads, level[0], level[1].clone(), level[2], depths, 7);
+				long parallelNanos = System.nanoTime() - time;
+				System.out.printf("Density %g: serial %d ms, commit %d ms%n", density, serialNanos / 1000000, parallelNanos / 1000000);
+			}
+		}
+		executor.shutdown();
+	}
+
+	// reached, current and next with disjoint random bits below size
+	static long[][] randomLevel(Random random, int words, double density, int size) {
+		long[][] level = new long[3][words];
+		int bits = (int) Math.min(size, density * size);
+		for (int i = 0; i < 3 * bits; i++) {
+			int state = random.nextInt(size);
+			int w = state >>> 6;
+			long bit = 1L << state;
+			if (((level[0][w] | level[1][w] | level[2][w]) & bit) == 0) level[i % 3][w] |= bit;
+		}
+		return level;
+	}
+}
@@ -0,0 +1,498 @@
+package io.chandler.morajai;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntConsumer;
+
+/**
+ * Compressed set of StateIndex positions, in the style of Roaring bitmaps.
+ *
+ * Values are split by their high 16 bits into blocks of 65536, and each non-empty block is held
+ * in whichever container is smallest: a sorted char array (up to 4096 values), a 1024-word
+ * bitmap, or a list of runs.  Blocks are found by direct lookup, so a test in an empty block is
+ * a single read of the block table, which stays in cache even for the full index.
+ *
+ * Sparse frontiers and the clustered pruned states take a small fraction of a dense bitset.
+ * Blocks are independent, so the parallel operations hand whole blocks to each task.
+ */
+public final class MJIntSet {
+
+	static final int BLOCK_BITS = 16;
+	static final int BLOCK_WORDS = 1 << (BLOCK_BITS - 6);
+	// Largest array container, where it reaches the size of a bitmap
+	static final int ARRAY_MAX = 4096;
+
+	// Blocks per task in the parallel operations
+	private static final int BLOCKS_PER_TASK = 64;
+
+	private final Container[] blocks;
+
+	/** Empty set for values in [0, size) */
+	public MJIntSet(int size) {
+		blocks = new Container[(int) (((long) size + (1 << BLOCK_BITS) - 1) >>> BLOCK_BITS)];
+	}
+
+	public boolean contains(int value) {
+		Container block = blocks[value >>> BLOCK_BITS];
+		return block != null && block.contains((char) value);
+	}
+
+	public void add(int value) {
+		int key = value >>> BLOCK_BITS;
+		Container block = blocks[key];
+		blocks[key] = block == null ? new ArrayContainer().add((char) value) : block.add((char) value);
+	}
+
+	public long cardinality() {
+		long cardinality = 0;
+		for (Container block : blocks) {
+			if (block != null) cardinality += block.cardinality();
+		}
+		return cardinality;
+	}
+
+	public boolean isEmpty() {
+		for (Container block : blocks) {
+			if (block != null) return false;
+		}
+		return true;
+	}
+
+	/** Adds every value of other */
+	public void or(MJIntSet other) {
+		long[] words = new long[BLOCK_WORDS];
+		for (int key = 0; key < Math.min(blocks.length, other.blocks.length); key++) {
+			Container theirs = other.blocks[key];
+			if (theirs == null) continue;
+			if (blocks[key] == null) {
+				blocks[key] = theirs.copy();
+				continue;
+			}
+			Arrays.fill(words, 0);
+			blocks[key].orInto(words);
+			theirs.orInto(words);
+			blocks[key] = Container.fromWords(words, 0);
+		}
+	}
+
+	/** Removes every value of other */
+	public void andNot(MJIntSet other) {
+		long[] words = new long[BLOCK_WORDS];
+		long[] theirs = new long[BLOCK_WORDS];
+		for (int key = 0; key < Math.min(blocks.length, other.blocks.length); key++) {
+			if (blocks[key] == null || other.blocks[key] == null) continue;
+			Arrays.fill(words, 0);
+			Arrays.fill(theirs, 0);
+			blocks[key].orInto(words);
+			other.blocks[key].orInto(theirs);
+			for (int w = 0; w < BLOCK_WORDS; w++) words[w] &= ~theirs[w];
+			blocks[key] = Container.fromWords(words, 0);
+		}
+	}
+
+	/** Calls action for each value, in ascending order */
+	public void forEach(IntConsumer action) {
+		forEach(0, blocks.length, action);
+	}
+
+	private void forEach(int fromBlock, int toBlock, IntConsumer action) {
+		for (int key = fromBlock; key < toBlock; key++) {
+			if (blocks[key] != null) blocks[key].forEach(key << BLOCK_BITS, action);
+		}
+	}
+
+	// Block access for structures paged the same way, e.g. MJPagedDepthTracker
+	int blockCount() {
+		return blocks.length;
+	}
+
+	int blockCardinality(int key) {
+		return blocks[key] == null ? 0 : blocks[key].cardinality();
+	}
+
+	void forEachInBlock(int key, IntConsumer action) {
+		forEach(key, key + 1, action);
+	}
+
+	/** forEach split across the executor by blocks; the action must be thread safe */
+	public void forEach(ExecutorService executor, IntConsumer action) {
+		List<Future<Object>> futures = new ArrayList<>();
+		for (int start = 0; start < blocks.length; start += BLOCKS_PER_TASK) {
+			int fromBlock = start;
+			int toBlock = Math.min(start + BLOCKS_PER_TASK, blocks.length);
+			futures.add(executor.submit(() -> forEach(fromBlock, toBlock, action), null));
+		}
+		join(futures);
+	}
+
+	/**
+	 * Adds the bits of a dense bitset, words[w] holding values 64w to 64w + 63.
+	 * Each task converts whole blocks, so this is safe to call from several threads for disjoint
+	 * block-aligned ranges, as MJColorPrune does per chunk.
+	 * @param firstWord Bitset word of words[offset], a multiple of 1024
+	 * @return The number of values added
+	 */
+	public int addWords(int firstWord, long[] words, int offset, int count) {
+		if (firstWord % BLOCK_WORDS != 0) throw new IllegalArgumentException("Word " + firstWord + " isn't at a block boundary");
+		long[] block = new long[BLOCK_WORDS];
+		int added = 0;
+		for (int w = 0; w < count; w += BLOCK_WORDS) {
+			int key = (firstWord + w) / BLOCK_WORDS;
+			int length = Math.min(BLOCK_WORDS, count - w);
+			Arrays.fill(block, 0);
+			System.arraycopy(words, offset + w, block, 0, length);
+			Container old = blocks[key];
+			if (old != null) {
+				old.orInto(block);
+				added -= old.cardinality();
+			}
+			blocks[key] = Container.fromWords(block, 0);
+			if (blocks[key] != null) added += blocks[key].cardinality();
+		}
+		return added;
+	}
+
+	/** The set of the bits in a dense bitset, converted in parallel */
+	public static MJIntSet fromWords(ExecutorService executor, long[] words, int size) {
+		MJIntSet set = new MJIntSet(size);
+		List<Future<Object>> futures = new ArrayList<>();
+		for (int start = 0; start < set.blocks.length; start += BLOCKS_PER_TASK) {
+			int fromBlock = start;
+			int toBlock = Math.min(start + BLOCKS_PER_TASK, set.blocks.length);
+			futures.add(executor.submit(() -> {
+				long[] block = new long[BLOCK_WORDS];
+				for (int key = fromBlock; key < toBlock; key++) {
+					int first = key * BLOCK_WORDS;
+					int length = Math.min(BLOCK_WORDS, words.length - first);
+					if (length == BLOCK_WORDS) {
+						set.blocks[key] = Container.fromWords(words, first);
+						continue;
+					}
+					// The last block may be partial
+					Arrays.fill(block, 0);
+					System.arraycopy(words, first, block, 0, length);
+					set.blocks[key] = Container.fromWords(block, 0);
+				}
+			}, null));
+		}
+		join(futures);
+		return set;
+	}
+
+	/** Bytes held by the containers, for comparison with a dense bitset */
+	public long sizeInBytes() {
+		long bytes = 4L * blocks.length;
+		for (Container block : blocks) {
+			if (block != null) bytes += block.sizeInBytes();
+		}
+		return bytes;
+	}
+
+	private static <T> void join(List<Future<T>> futures) {
+		try {
+			for (Future<T> future : futures) future.get();
+		} catch (InterruptedException | ExecutionException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private abstract static class Container {
+		abstract int cardinality();
+
+		abstract boolean contains(char low);
+
+		/** Adds low, returns the container now holding the block */
+		abstract Container add(char low);
+
+		abstract void orInto(long[] words);
+
+		abstract void forEach(int base, IntConsumer action);
+
+		abstract Container copy();
+
+		abstract long sizeInBytes();
+
+		/** The smallest container for a block's bitmap, or null if it is empty */
+		static Container fromWords(long[] words, int offset) {
+			int cardinality = 0, runs = 0;
+			long carry = 0;
+			for (int w = offset; w < offset + BLOCK_WORDS; w++) {
+				long word = words[w];
+				cardinality += Long.bitCount(word);
+				// A run starts at each set bit whose lower neighbor is clear
+				runs += Long.bitCount(word & ~(word << 1 | carry));
+				carry = word >>> 63;
+			}
+			if (cardinality == 0) return null;
+			if (4L * runs < Math.min(2L * cardinality, 8L * BLOCK_WORDS)) return RunContainer.fromWords(words, offset, runs, cardinality);
+			if (cardinality <= ARRAY_MAX) return ArrayContainer.fromWords(words, offset, cardinality);
+			return new BitmapContainer(Arrays.copyOfRange(words, offset, offset + BLOCK_WORDS), cardinality);
+		}
+	}
+
+	private static final class ArrayContainer extends Container {
+		private char[] values;
+		private int size;
+
+		ArrayContainer() {
+			values = new char[4];
+		}
+
+		private ArrayContainer(char[] values, int size) {
+			this.values = values;
+			this.size = size;
+		}
+
+		static ArrayContainer fromWords(long[] words, int offset, int cardinality) {
+			char[] values = new char[cardinality];
+			int size = 0;
+			for (int w = 0; w < BLOCK_WORDS; w++) {
+				for (long word = words[offset + w]; word != 0; word &= word - 1) {
+					values[size++] = (char) (w << 6 | Long.numberOfTrailingZeros(word));
+				}
+			}
+			return new ArrayContainer(values, size);
+		}
+
+		@Override
+		int cardinality() {
+			return size;
+		}
+
+		@Override
+		boolean contains(char low) {
+			return Arrays.binarySearch(values, 0, size, low) >= 0;
+		}
+
+		@Override
+		Container add(char low) {
+			int position = Arrays.binarySearch(values, 0, size, low);
+			if (position >= 0) return this;
+			if (size == ARRAY_MAX) {
+				long[] words = new long[BLOCK_WORDS];
+				orInto(words);
+				words[low >>> 6] |= 1L << low;
+				return new BitmapContainer(words, size + 1);
+			}
+			position = -position - 1;
+			if (size == values.length) values = Arrays.copyOf(values, Math.min(ARRAY_MAX, size * 2));
+			System.arraycopy(values, position, values, position + 1, size - position);
+			values[position] = low;
+			size++;
+			return this;
+		}
+
+		@Override
+		void orInto(long[] words) {
+			for (int i = 0; i < size; i++) words[values[i] >>> 6] |= 1L << values[i];
+		}
+
+		@Override
+		void forEach(int base, IntConsumer action) {
+			for (int i = 0; i < size; i++) action.accept(base | values[i]);
+		}
+
+		@Override
+		Container copy() {
+			return new ArrayContainer(Arrays.copyOf(values, size), size);
+		}
+
+		@Override
+		long sizeInBytes() {
+			return 16 + 2L * values.length;
+		}
+	}
+
+	private static final class BitmapContainer extends Container {
+		private final long[] words;
+		private int cardinality;
+
+		BitmapContainer(long[] words, int cardinality) {
+			this.words = words;
+			this.cardinality = cardinality;
+		}
+
+		@Override
+		int cardinality() {
+			return cardinality;
+		}
+
+		@Override
+		boolean contains(char low) {
+			return (words[low >>> 6] & (1L << low)) != 0;
+		}
+
+		@Override
+		Container add(char low) {
+			long bit = 1L << low;
+			if ((words[low >>> 6] & bit) == 0) {
+				words[low >>> 6] |= bit;
+				cardinality++;
+			}
+			return this;
+		}
+
+		@Override
+		void orInto(long[] words) {
+			for (int w = 0; w < BLOCK_WORDS; w++) words[w] |= this.words[w];
+		}
+
+		@Override
+		void forEach(int base, IntConsumer action) {
+			for (int w = 0; w < BLOCK_WORDS; w++) {
+				for (long word = words[w]; word != 0; word &= word - 1) {
+					action.accept(base | w << 6 | Long.numberOfTrailingZeros(word));
+				}
+			}
+		}
+
+		@Override
+		Container copy() {
+			return new BitmapContainer(words.clone(), cardinality);
+		}
+
+		@Override
+		long sizeInBytes() {
+			return 16 + 8L * BLOCK_WORDS;
+		}
+	}
+
+	private static final class RunContainer extends Container {
+		// Run i covers starts[i] to ends[i] inclusive, in ascending order
+		private final char[] starts;
+		private final char[] ends;
+		private final int cardinality;
+
+		private RunContainer(char[] starts, char[] ends, int cardinality) {
+			this.starts = starts;
+			this.ends = ends;
+			this.cardinality = cardinality;
+		}
+
+		static RunContainer fromWords(long[] words, int offset, int runs, int cardinality) {
+			char[] starts = new char[runs];
+			char[] ends = new char[runs];
+			int run = -1;
+			int previous = -2;
+			for (int w = 0; w < BLOCK_WORDS; w++) {
+				for (long word = words[offset + w]; word != 0; word &= word - 1) {
+					int low = w << 6 | Long.numberOfTrailingZeros(word);
+					if (low != previous + 1) starts[++run] = (char) low;
+					ends[run] = (char) low;
+					previous = low;
+				}
+			}
+			return new RunContainer(starts, ends, cardinality);
+		}
+
+		@Override
+		int cardinality() {
+			return cardinality;
+		}
+
+		@Override
+		boolean contains(char low) {
+			int position = Arrays.binarySearch(starts, low);
+			if (position >= 0) return true;
+			// The run starting below low
+			position = -position - 2;
+			return position >= 0 && low <= ends[position];
+		}
+
+		@Override
+		Container add(char low) {
+			if (contains(low)) return this;
+			long[] words = new long[BLOCK_WORDS];
+			orInto(words);
+			words[low >>> 6] |= 1L << low;
+			return Container.fromWords(words, 0);
+		}
+
+		@Override
+		void orInto(long[] words) {
+			for (int i = 0; i < starts.length; i++) {
+				int from = starts[i], to = ends[i] + 1;
+				int first = from >>> 6, last = (to - 1) >>> 6;
+				if (first == last) {
+					words[first] |= (-1L << from) & (-1L >>> -to);
+					continue;
+				}
+				words[first] |= -1L << from;
+				for (int w = first + 1; w < last; w++) words[w] = -1L;
+				words[last] |= -1L >>> -to;
+			}
+		}
+
+		@Override
+		void forEach(int base, IntConsumer action) {
+			for (int i = 0; i < starts.length; i++) {
+				for (int low = starts[i]; low <= ends[i]; low++) action.accept(base | low);
+			}
+		}
+
+		@Override
+		Container copy() {
+			return this;
+		}
+
+		@Override
+		long sizeInBytes() {
+			return 16 + 4L * starts.length;
+		}
+	}
+
+	/**
+	 * Lookup throughput against a dense bitset for frontiers of several sizes, on [threads] threads.
+	 */
+	public static void main(String[] args) {
+		int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		Random random = new Random(1);
+
+		// Successor-like lookups: a quarter are presses of a frontier state, the rest anywhere
+		StateIndex index = StateIndex.NO_BLUE;
+		int[] probes = new int[1 << 22];
+		for (int frontier : new int[] {1 << 10, 1 << 16, 1 << 20, 1 << 24}) {
+			long[] dense = new long[(index.size() + 63) >>> 6];
+			int[] states = new int[frontier];
+			for (int i = 0; i < frontier; i++) {
+				int state = random.nextInt(index.size());
+				dense[state >>> 6] |= 1L << state;
+				states[i] = state;
+			}
+			MJIntSet set = fromWords(executor, dense, index.size());
+			for (int i = 0; i < probes.length; i++) {
+				int probe = -1;
+				if ((i & 3) == 0) {
+					int state = index.toState(states[random.nextInt(frontier)]);
+					probe = index.toIndex(state + MoraJaiBox.pressDelta(StateCodec.pack(state), random.nextInt(9)));
+				}
+				probes[i] = probe >= 0 ? probe : random.nextInt(index.size());
+			}
+			for (int run = 0; run < 3; run++) {
+				long time = System.nanoTime();
+				int hits = 0;
+				for (int probe : probes) {
+					if ((dense[probe >>> 6] & (1L << probe)) != 0) hits++;
+				}
+				long denseNanos = System.nanoTime() - time;
+				time = System.nanoTime();
+				int setHits = 0;
+				for (int probe : probes) {
+					if (set.contains(probe)) setHits++;
+				}
+				long setNanos = System.nanoTime() - time;
+				if (hits != setHits) throw new IllegalStateException("Lookups differ");
+				System.out.printf("Frontier %d (%d KB): dense %.1f ns, set %.1f ns per lookup%n", frontier, set.sizeInBytes() / 1024,
+						denseNanos / (double) probes.length, setNanos / (double) probes.length);
+			}
+		}
+		executor.shutdown();
+	}
+}
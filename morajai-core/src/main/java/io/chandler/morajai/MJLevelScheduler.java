@@ -0,0 +1,86 @@
+package io.chandler.morajai;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Level-synchronous fork/join scheduler for the CPU scans.
+ *
+ * A level's range is split in halves down to a grain, and idle workers steal the larger halves
+ * still queued, so a skewed stretch of the index no longer holds up the whole level.  run returns
+ * once every leaf is done, which is the barrier between a level's scan and its commit.
+ *
+ * The grain adapts to the measured throughput: after each level it is set so that one leaf takes
+ * about TARGET_LEAF_NANOS, bounded to keep several leaves per worker.  Levels get cheaper per
+ * state as the index fills up, so a fixed chunk count is either too coarse early or too fine late.
+ */
+class MJLevelScheduler {
+
+	interface RangeBody {
+		void run(int start, int end);
+	}
+
+	private static final long TARGET_LEAF_NANOS = 20_000_000;
+	private static final int MIN_GRAIN = 1 << 12;
+	// Leaves per worker the grain must still allow, so there is something left to steal
+	private static final int MIN_LEAVES_PER_WORKER = 8;
+
+	private final ForkJoinPool pool;
+	private int grain = 1 << 16;
+
+	private final LongAdder leafNanos = new LongAdder();
+	private final LongAdder leafItems = new LongAdder();
+
+	MJLevelScheduler(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	int grain() {
+		return grain;
+	}
+
+	/**
+	 * Runs body over [0, size) in leaves of at most grain() items and waits for all of them
+	 */
+	void run(int size, RangeBody body) {
+		if (size == 0) return;
+		leafNanos.reset();
+		leafItems.reset();
+		int leafGrain = Math.max(MIN_GRAIN, Math.min(grain, size / (pool.getParallelism() * MIN_LEAVES_PER_WORKER)));
+		pool.invoke(new Split(0, size, leafGrain, body));
+
+		// Time per item inside the leaves, independent of how many workers ran them
+		long nanos = leafNanos.sum();
+		if (nanos > 0) {
+			grain = (int) Math.max(MIN_GRAIN, Math.min(Integer.MAX_VALUE, TARGET_LEAF_NANOS * leafItems.sum() / nanos));
+		}
+	}
+
+	private class Split extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final int start, end, leafGrain;
+		private final RangeBody body;
+
+		Split(int start, int end, int leafGrain, RangeBody body) {
+			this.start = start;
+			this.end = end;
+			this.leafGrain = leafGrain;
+			this.body = body;
+		}
+
+		@Override
+		protected void compute() {
+			if (end - start <= leafGrain) {
+				long time = System.nanoTime();
+				body.run(start, end);
+				leafNanos.add(System.nanoTime() - time);
+				leafItems.add(end - start);
+				return;
+			}
+			int mid = (int) (((long) start + end) >>> 1);
+			invokeAll(new Split(start, mid, leafGrain, body), new Split(mid, end, leafGrain, body));
+		}
+	}
+}
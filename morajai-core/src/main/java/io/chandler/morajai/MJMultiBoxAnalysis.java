@@ -0,0 +1,367 @@
+package io.chandler.morajai;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import io.chandler.morajai.MoraJaiBox.Color;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+/**
+ * Bit-sliced BFS over up to 64 boxes in one pass per level.
+ *
+ * The move graph doesn't depend on the targets, so bit k of each state's words can track box k
+ * and every frontier advances with word-wide operations.  Each lane is held in two bit planes:
+ *   (a, b) = (0, 0) unreached, (0, 1) next level, (1, 1) current level, (1, 0) older
+ * A level sets next = unreached & OR(current at the 9 successors), then demotes every current
+ * state that is one press from a next state to older.  What stays current is exactly what
+ * MJDepthsBacktracker reports for that depth, so no per-box depth array is needed.  The commit
+ * is (a, b) = (a | b, b & ~a).
+ *
+ * Output files match MJAnalysis apart from the header, as no pruning is done.  Memory is 16 bytes
+ * per StateIndex position for up to 64 boxes: 6.2 GB for noBlue, 16 GB for the full palette.
+ */
+public class MJMultiBoxAnalysis {
+
+	public static final int LANES = 64;
+
+	private static final VarHandle LONGS = MethodHandles.arrayElementVarHandle(long[].class);
+	private static final int NUM_CHUNKS = 256;
+	private static final int BATCH_SIZE = 1024;
+
+	private final Path storageDir;
+	private final boolean noBlue;
+	private final StateIndex index;
+
+	private int threads = 17;
+
+	private static class Lane {
+		final int idx;
+		final Color[] targetColors;
+		final String filename;
+		PrintStream out;
+		final List<Integer> backtrackCounts = new ArrayList<>();
+		final List<IntArrayList> backtrackStates = new ArrayList<>();
+
+		Lane(int idx, Color[] targetColors, String filename) {
+			this.idx = idx;
+			this.targetColors = targetColors;
+			this.filename = filename;
+		}
+	}
+
+	public MJMultiBoxAnalysis(Path storageDir, boolean noBlue) {
+		this(storageDir, noBlue, StateIndex.forNoBlue(noBlue));
+	}
+
+	MJMultiBoxAnalysis(Path storageDir, boolean noBlue, StateIndex index) {
+		this.storageDir = storageDir;
+		this.noBlue = noBlue;
+		this.index = index;
+	}
+
+	public MJMultiBoxAnalysis setThreads(int threads) {
+		this.threads = threads;
+		return this;
+	}
+
+	public void fullDepthAnalysis(int[] idxs, Consumer<MJAnalysisStats> statsUpdate) {
+		if (idxs.length > LANES) throw new IllegalArgumentException("At most " + LANES + " boxes per pass");
+
+		List<Lane> lanes = new ArrayList<>();
+		nextBox: for (int idx : idxs) {
+			Color[] targetColors = new Color[] { Color.values()[idx/1000%10], Color.values()[idx/100%10], Color.values()[idx/10%10], Color.values()[idx%10] };
+			String filename = noBlue ? "_noBlue" : "";
+			for (Color color : targetColors) {
+				if (!index.contains(color)) continue nextBox;
+				filename += "_" + color.name();
+			}
+			lanes.add(new Lane(idx, targetColors, filename));
+		}
+		if (lanes.isEmpty()) return;
+
+		MJAnalysisStats stats = new MJAnalysisStats(lanes.get(0).idx, lanes.get(0).filename + (lanes.size() > 1 ? " +" + (lanes.size() - 1) : ""));
+		statsUpdate.accept(stats);
+
+		ThreadLocal<MJBatchSuccessors> threadLocalBatch = ThreadLocal.withInitial(MJBatchSuccessors::create);
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		// Pooled, so returned to MJBufferPool in the finally block however the analysis ends
+		long[] aWords = null, bWords = null;
+		try {
+			for (Lane lane : lanes) {
+				lane.out = new PrintStream(new File(storageDir.resolve("depths_v3_" + lane.idx + lane.filename + ".txt").toString()));
+				lane.out.println("Starting analysis for " + lane.idx + " " + lane.filename + " with CPU - pruner: " + false);
+			}
+
+			long[] a = MJBufferPool.SHARED.longs(index.size());
+			aWords = a;
+			long[] b = MJBufferPool.SHARED.longs(index.size());
+			bWords = b;
+
+			int[] counts = new int[LANES];
+			long live = 0;
+			for (int k = 0; k < lanes.size(); k++) {
+				counts[k] = generateDepth0(lanes.get(k).targetColors, k, a, b);
+				lanes.get(k).backtrackCounts.add(0);
+				lanes.get(k).backtrackStates.add(new IntArrayList());
+				if (counts[k] > 0) live |= 1L << k;
+			}
+			stats.begun = true;
+			statsUpdate.accept(stats);
+
+			int chunkSize = (index.size() + NUM_CHUNKS - 1) / NUM_CHUNKS;
+			int depth = 0;
+
+			while (live != 0) {
+				int total = 0;
+				for (long bits = live; bits != 0; bits &= bits - 1) {
+					int k = Long.numberOfTrailingZeros(bits);
+					lanes.get(k).out.println("Depth " + depth + " has " + counts[k] + " states");
+					total += counts[k];
+				}
+				stats.depth = depth;
+				stats.statesAtDepth = total;
+				statsUpdate.accept(stats);
+
+				depth++;
+				final long levelLive = live;
+
+				// Next level
+				List<Callable<int[]>> expand = new ArrayList<>();
+				for (int chunk = 0; chunk < NUM_CHUNKS; chunk++) {
+					int start = Math.min(chunk * chunkSize, index.size());
+					int end = Math.min(start + chunkSize, index.size());
+					expand.add(() -> expand(threadLocalBatch.get(), a, b, start, end, levelLive));
+				}
+				counts = new int[LANES];
+				for (int[] chunkCounts : invokeAll(executor, expand)) {
+					for (int k = 0; k < LANES; k++) counts[k] += chunkCounts[k];
+				}
+
+				// Demote current states with a predecessor in next
+				List<Callable<Void>> demote = new ArrayList<>();
+				for (int chunk = 0; chunk < NUM_CHUNKS; chunk++) {
+					int start = Math.min(chunk * chunkSize, index.size());
+					int end = Math.min(start + chunkSize, index.size());
+					demote.add(() -> demote(threadLocalBatch.get(), a, b, start, end));
+				}
+				invokeAll(executor, demote);
+
+				// Report the surviving previous level and commit
+				final boolean report = depth - 1 > 0;
+				List<Callable<Survivors>> commit = new ArrayList<>();
+				for (int chunk = 0; chunk < NUM_CHUNKS; chunk++) {
+					int start = Math.min(chunk * chunkSize, index.size());
+					int end = Math.min(start + chunkSize, index.size());
+					commit.add(() -> commit(a, b, start, end, report));
+				}
+				List<Survivors> survivors = invokeAll(executor, commit);
+				if (report) {
+					for (long bits = levelLive; bits != 0; bits &= bits - 1) {
+						int k = Long.numberOfTrailingZeros(bits);
+						int count = 0;
+						IntArrayList states = new IntArrayList();
+						// Chunks are in state order, so the kept states are the lowest as in MJDepthsBacktracker
+						for (Survivors chunkSurvivors : survivors) {
+							count += chunkSurvivors.counts[k];
+							IntArrayList list = chunkSurvivors.states[k];
+							for (int i = 0; list != null && i < list.size() && states.size() <= MJDepthsBacktracker.THRESHOLD; i++) {
+								states.add(list.getInt(i));
+							}
+						}
+						lanes.get(k).backtrackCounts.add(count);
+						lanes.get(k).backtrackStates.add(states);
+					}
+				}
+
+				live = 0;
+				for (long bits = levelLive; bits != 0; bits &= bits - 1) {
+					int k = Long.numberOfTrailingZeros(bits);
+					if (counts[k] > 0) {
+						live |= 1L << k;
+					} else {
+						finish(lanes.get(k));
+					}
+				}
+			}
+
+			stats.complete = true;
+			statsUpdate.accept(stats);
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			for (Lane lane : lanes) {
+				if (lane.out != null) lane.out.close();
+			}
+			executor.shutdown();
+			try {
+				// A failed level can leave tasks running on the arrays, so they're only handed back once the workers stop
+				executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+				if (aWords != null) MJBufferPool.SHARED.release(aWords);
+				if (bWords != null) MJBufferPool.SHARED.release(bWords);
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	// Sets (1, 1) for the box's goal states; counts every goal state like MJAnalysis, even outside the palette
+	private int generateDepth0(Color[] targetColors, int lane, long[] a, long[] b) {
+		int[] counter = new int[1];
+		MoraJaiBox.forEachGoal(targetColors, goal -> {
+			int state = index.toIndex(goal);
+			if (state >= 0) {
+				a[state] |= 1L << lane;
+				b[state] |= 1L << lane;
+			}
+			counter[0]++;
+		});
+		return counter[0];
+	}
+
+	// next[s] = unreached[s] & OR(current[successors]), returns the new states per lane
+	private int[] expand(MJBatchSuccessors batch, long[] a, long[] b, int start, int end, long live) {
+		int[] counts = new int[LANES];
+		int[] block = new int[BATCH_SIZE];
+		int[] blockIndex = new int[BATCH_SIZE];
+		int[] successors = new int[BATCH_SIZE * 9];
+		int blockCount = 0;
+		for (int s = start; s < end; s++) {
+			// After a commit b is a subset of a, so ~a is the unreached lanes
+			if ((~a[s] & live) == 0) continue;
+			block[blockCount] = index.toState(s);
+			blockIndex[blockCount++] = s;
+			if (blockCount == BATCH_SIZE) {
+				expandBlock(batch, block, blockIndex, blockCount, successors, a, b, live, counts);
+				blockCount = 0;
+			}
+		}
+		expandBlock(batch, block, blockIndex, blockCount, successors, a, b, live, counts);
+		return counts;
+	}
+
+	private void expandBlock(MJBatchSuccessors batch, int[] block, int[] blockIndex, int count, int[] successors,
+			long[] a, long[] b, long live, int[] counts) {
+		batch.successors(block, count, successors);
+		index.toIndex(successors, count * 9);
+		for (int i = 0; i < count; i++) {
+			int state = blockIndex[i];
+			long reachable = 0;
+			for (int j = i * 9; j < i * 9 + 9; j++) {
+				int w = successors[j];
+				// Only current bits matter, and other chunks only write next bits in this pass
+				reachable |= a[w] & b[w];
+			}
+			long bits = reachable & ~a[state] & live;
+			if (bits != 0) {
+				b[state] |= bits;
+				for (; bits != 0; bits &= bits - 1) counts[Long.numberOfTrailingZeros(bits)]++;
+			}
+		}
+	}
+
+	// Clears the current bit of each successor that a next state in the same lane presses into
+	private Void demote(MJBatchSuccessors batch, long[] a, long[] b, int start, int end) {
+		int[] block = new int[BATCH_SIZE];
+		int[] blockIndex = new int[BATCH_SIZE];
+		int[] successors = new int[BATCH_SIZE * 9];
+		int blockCount = 0;
+		for (int s = start; s < end; s++) {
+			if ((b[s] & ~a[s]) == 0) continue;
+			block[blockCount] = index.toState(s);
+			blockIndex[blockCount++] = s;
+			if (blockCount == BATCH_SIZE) {
+				demoteBlock(batch, block, blockIndex, blockCount, successors, a, b);
+				blockCount = 0;
+			}
+		}
+		demoteBlock(batch, block, blockIndex, blockCount, successors, a, b);
+		return null;
+	}
+
+	private void demoteBlock(MJBatchSuccessors batch, int[] block, int[] blockIndex, int count, int[] successors, long[] a, long[] b) {
+		batch.successors(block, count, successors);
+		index.toIndex(successors, count * 9);
+		for (int i = 0; i < count; i++) {
+			int state = blockIndex[i];
+			long next = b[state] & ~a[state];
+			for (int j = i * 9; j < i * 9 + 9; j++) {
+				int w = successors[j];
+				if (w == state) continue;
+				// Bits are only ever cleared here, so a stale read can only cost an extra CAS
+				long m = next & a[w] & b[w];
+				if (m != 0) LONGS.getAndBitwiseAnd(b, w, ~m);
+			}
+		}
+	}
+
+	// Surviving current states of one chunk: counts per lane and the first THRESHOLD + 1 of each, as decimal states
+	private static class Survivors {
+		final int[] counts = new int[LANES];
+		final IntArrayList[] states = new IntArrayList[LANES];
+	}
+
+	// Collects the surviving current states if report is set, then commits the level
+	private Survivors commit(long[] a, long[] b, int start, int end, boolean report) {
+		Survivors survivors = new Survivors();
+		for (int s = start; s < end; s++) {
+			long aw = a[s], bw = b[s];
+			long current = aw & bw;
+			if (report && current != 0) {
+				for (long bits = current; bits != 0; bits &= bits - 1) {
+					int k = Long.numberOfTrailingZeros(bits);
+					if (survivors.states[k] == null) survivors.states[k] = new IntArrayList();
+					if (++survivors.counts[k] <= MJDepthsBacktracker.THRESHOLD + 1) survivors.states[k].add(index.toState(s));
+				}
+			}
+			a[s] = aw | bw;
+			b[s] = bw & ~aw;
+		}
+		return survivors;
+	}
+
+	private void finish(Lane lane) {
+		PrintStream out = lane.out;
+		for (int depth = 0; depth < lane.backtrackCounts.size(); depth++) {
+			int count = lane.backtrackCounts.get(depth);
+			out.println("Backedtracked depth " + depth + " has " + count + " states");
+			IntArrayList states = lane.backtrackStates.get(depth);
+			if (count > 0 && count <= MJDepthsBacktracker.THRESHOLD) {
+				String delim = "";
+				for (int i = 0; i < states.size(); i++) {
+					out.print(delim);
+					out.print(states.getInt(i));
+					delim = ",";
+				}
+				out.println();
+			}
+		}
+		out.println("Complete");
+		out.close();
+		lane.out = null;
+	}
+
+	private static <T> List<T> invokeAll(ExecutorService executor, List<Callable<T>> tasks) {
+		List<T> results = new ArrayList<>();
+		try {
+			for (Future<T> future : executor.invokeAll(tasks)) {
+				results.add(future.get());
+			}
+		} catch (InterruptedException | ExecutionException e) {
+			throw new RuntimeException(e);
+		}
+		return results;
+	}
+}
@@ -0,0 +1,73 @@
+package io.chandler.morajai;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+
+import jdk.incubator.foreign.CLinker;
+import jdk.incubator.foreign.FunctionDescriptor;
+import jdk.incubator.foreign.MemoryAddress;
+import jdk.incubator.foreign.MemorySegment;
+import jdk.incubator.foreign.ResourceScope;
+import jdk.incubator.foreign.SymbolLookup;
+
+/**
+ * Batch successor engine backed by the simulator's C rules (src/main/c/mj_batch.c + morajai.c),
+ * called through jdk.incubator.foreign on off-heap blocks.
+ *
+ * The library is loaded from the morajai.native system property if set, otherwise as "morajai"
+ * from java.library.path.  Build it with the "native" Maven profile and run with
+ * --add-modules jdk.incubator.foreign --enable-native-access=ALL-UNNAMED.  Only reference through
+ * MJBatchSuccessors.create(), which falls back to the Java engines when any of that is missing.
+ */
+class MJNativeSuccessors extends MJBatchSuccessors {
+
+	private static final MethodHandle BATCH_SUCCESSORS;
+
+	static {
+		String path = System.getProperty("morajai.native");
+		if (path != null) {
+			System.load(path);
+		} else {
+			System.loadLibrary("morajai");
+		}
+		MemoryAddress symbol = SymbolLookup.loaderLookup().lookup("mj_batch_successors")
+			.orElseThrow(() -> new UnsatisfiedLinkError("mj_batch_successors not found"));
+		BATCH_SUCCESSORS = CLinker.getInstance().downcallHandle(symbol,
+			MethodType.methodType(void.class, MemoryAddress.class, int.class, MemoryAddress.class),
+			FunctionDescriptor.ofVoid(CLinker.C_POINTER, CLinker.C_INT, CLinker.C_POINTER));
+	}
+
+	// Released by the GC along with the engine
+	private final ResourceScope scope = ResourceScope.newImplicitScope();
+	private int capacity = 0;
+	private MemorySegment statesSegment;
+	private MemorySegment successorsSegment;
+
+	@Override
+	public int lanes() {
+		return 1;
+	}
+
+	@Override
+	public String name() {
+		return "native";
+	}
+
+	@Override
+	public void successors(int[] states, int count, int[] out) {
+		if (count == 0) return;
+		if (count > capacity) {
+			capacity = Math.max(count, 1024);
+			statesSegment = MemorySegment.allocateNative(capacity * 4L, scope);
+			successorsSegment = MemorySegment.allocateNative(capacity * 36L, scope);
+		}
+
+		statesSegment.copyFrom(MemorySegment.ofArray(states).asSlice(0, count * 4L));
+		try {
+			BATCH_SUCCESSORS.invokeExact(statesSegment.address(), count, successorsSegment.address());
+		} catch (Throwable e) {
+			throw new RuntimeException(e);
+		}
+		MemorySegment.ofArray(out).asSlice(0, count * 36L).copyFrom(successorsSegment.asSlice(0, count * 36L));
+	}
+}
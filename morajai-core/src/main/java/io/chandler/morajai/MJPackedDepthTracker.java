@@ -0,0 +1,133 @@
+package io.chandler.morajai;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import io.chandler.morajai.MJAnalysis.DepthTracker;
+
+/**
+ * DepthTracker in 2 bits per state, about 250 MB for the full palette instead of 1 GB.
+ *
+ * The level scan only asks whether a state is unreached, at the previous depth, or neither, so
+ * the codes are unreached, settled (dead, or any depth before the previous one) and the parity of
+ * the last two depths.  Each finished level is streamed in index order to a sorted run file (see
+ * MJRunFile) in a scratch directory, which settles the level before it, and backtrack works from
+ * the run files as MJExternalAnalysis does.  Depths have no upper limit.
+ *
+ * Every write must be for the level after the last finished one, so states can't be written ahead
+ * of their level as MJClosedClasses does.  Writes are atomic on the word, so workers can mark
+ * states in the same word.
+ */
+class MJPackedDepthTracker extends DepthTracker {
+
+	private static final VarHandle WORDS = MethodHandles.arrayElementVarHandle(long[].class);
+
+	private static final long UNREACHED_CODE = 0;
+	private static final long SETTLED_CODE = 1;
+	// 2 + (depth & 1)
+	private static final long PARITY_CODE = 2;
+
+	// The low bit of every 2-bit field
+	private static final long LOW_BITS = 0x5555555555555555L;
+
+	// State i in bits [2 * (i & 31), 2 * (i & 31) + 2) of words[i >>> 5]
+	private final long[] words;
+	private final Path scratch;
+	private final List<Path> levels = new ArrayList<>();
+
+	// Last depth written to a run, -1 before depth 0
+	private int finished = -1;
+
+	MJPackedDepthTracker(StateIndex index, Path scratch) throws IOException {
+		super(index, null);
+		this.words = MJBufferPool.SHARED.longs((int) (((long) index.size() + 31) >>> 5));
+		this.scratch = scratch;
+		Files.createDirectories(scratch);
+	}
+
+	private long code(int state) {
+		return words[state >>> 5] >>> (state << 1) & 3;
+	}
+
+	private void setCode(int state, long code) {
+		int shift = state << 1;
+		long mask = 3L << shift;
+		long old;
+		do {
+			old = (long) WORDS.getVolatile(words, state >>> 5);
+		} while (!WORDS.compareAndSet(words, state >>> 5, old, old & ~mask | code << shift));
+	}
+
+	@Override
+	public int getDepth(int state) {
+		long code = code(state);
+		if (code == UNREACHED_CODE) return UNREACHED;
+		if (code == SETTLED_CODE) return DEAD;
+		// Only the last finished depth and the one being written are left unsettled
+		return (code & 1) == (finished & 1) ? finished : finished + 1;
+	}
+
+	@Override
+	public void setDepth(int state, int depth) {
+		if (depth != finished + 1) throw new IllegalStateException("Depth " + depth + " written after finishing depth " + finished);
+		setCode(state, PARITY_CODE | depth & 1);
+	}
+
+	@Override
+	public boolean isUnreached(int state) {
+		return code(state) == UNREACHED_CODE;
+	}
+
+	@Override
+	public void markDead(int state) {
+		setCode(state, SETTLED_CODE);
+	}
+
+	/**
+	 * Writes the states at depth to a run and settles the depth before it.  Call once all of its
+	 * states are written and before any state of the next depth; no other thread may write meanwhile.
+	 */
+	void finishLevel(int depth) throws IOException {
+		if (depth != finished + 1) throw new IllegalStateException("Depth " + depth + " finished after depth " + finished);
+		long keep = depth & 1;
+		Path run = scratch.resolve("level_" + depth + ".run");
+		try (MJRunFile.Writer writer = new MJRunFile.Writer(run)) {
+			for (int w = 0; w < words.length; w++) {
+				long word = words[w];
+				long parity = word >>> 1 & LOW_BITS;
+				if (parity == 0) continue;
+				// Low bit of each field at this depth, and at the one before
+				long level = parity & (keep == 0 ? ~word : word);
+				long older = parity & ~level;
+				if (older != 0) words[w] = word & ~(older << 1) | older;
+				while (level != 0) {
+					writer.add(w << 5 | Long.numberOfTrailingZeros(level) >>> 1);
+					level &= level - 1;
+				}
+			}
+		}
+		levels.add(run);
+		finished = depth;
+	}
+
+	@Override
+	void close() {
+		MJBufferPool.SHARED.release(words);
+	}
+
+	/** Reports the backtracked states from the level runs, then deletes them; the last run must be the empty level */
+	void backtrack(PrintStream out) throws IOException {
+		try {
+			MJExternalAnalysis.backtrack(out, index, levels, levels.size() - 2, new int[MJExternalAnalysis.BUFFER_STATES], scratch, new int[1]);
+		} finally {
+			MJExternalAnalysis.deleteAll(levels);
+			Files.deleteIfExists(scratch);
+		}
+	}
+}
@@ -0,0 +1,157 @@
+package io.chandler.morajai;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import io.chandler.morajai.MJAnalysis.DepthTracker;
+
+/**
+ * DepthTracker in 64 KB pages, allocated on first write.
+ *
+ * Pages that are all unreached or all dead point at a shared read-only sentinel, so a new tracker
+ * costs nothing and a block the color prune removes entirely costs no memory.  Reads index the
+ * page table straight through, sentinels included.  A write to a sentinel page swaps in a private
+ * copy with a CAS on the table slot, so workers can write the same page without a lock; a reader
+ * on another thread may not see that copy until the phase's futures complete, as with any write.
+ * compact runs between levels and returns pages that became uniform to the sentinels.  The pages
+ * line up with the MJIntSet blocks, so a full block of dead states becomes a sentinel directly.
+ */
+class MJPagedDepthTracker extends DepthTracker {
+
+	private static final VarHandle PAGES = MethodHandles.arrayElementVarHandle(byte[][].class);
+
+	static final int PAGE_BITS = MJIntSet.BLOCK_BITS;
+	static final int PAGE_SIZE = 1 << PAGE_BITS;
+	private static final int PAGE_MASK = PAGE_SIZE - 1;
+	// Pages per task in the parallel passes
+	private static final int PAGES_PER_TASK = 64;
+
+	private static final byte[] UNREACHED_PAGE = filled(UNREACHED);
+	private static final byte[] DEAD_PAGE = filled(DEAD);
+
+	private final byte[][] pages;
+	// Pages holding a depth, which can never become uniform again, so compact skips them
+	private final boolean[] pinned;
+
+	MJPagedDepthTracker(StateIndex index) {
+		super(index, null);
+		pages = new byte[(int) (((long) index.size() + PAGE_MASK) >>> PAGE_BITS)][];
+		pinned = new boolean[pages.length];
+		Arrays.fill(pages, UNREACHED_PAGE);
+	}
+
+	private static byte[] filled(byte value) {
+		byte[] page = new byte[PAGE_SIZE];
+		Arrays.fill(page, value);
+		return page;
+	}
+
+	private static boolean isSentinel(byte[] page) {
+		return page == UNREACHED_PAGE || page == DEAD_PAGE;
+	}
+
+	// The private page holding state, copied from its sentinel if needed
+	private byte[] writable(int state) {
+		int p = state >>> PAGE_BITS;
+		byte[] page = pages[p];
+		while (isSentinel(page)) {
+			byte[] copy = page.clone();
+			if (PAGES.compareAndSet(pages, p, page, copy)) return copy;
+			page = (byte[]) PAGES.getVolatile(pages, p);
+		}
+		return page;
+	}
+
+	@Override
+	public int getDepth(int state) {
+		byte result = pages[state >>> PAGE_BITS][state & PAGE_MASK];
+		return result >= 0 || result < -3 ? result & 0xff : result;
+	}
+
+	@Override
+	public void setDepth(int state, int depth) {
+		if (depth > 250) throw new RuntimeException("Depth exceeds 250");
+		writable(state)[state & PAGE_MASK] = (byte) depth;
+	}
+
+	@Override
+	public boolean isUnreached(int state) {
+		return pages[state >>> PAGE_BITS][state & PAGE_MASK] == UNREACHED;
+	}
+
+	@Override
+	public void markDead(int state) {
+		if (pages[state >>> PAGE_BITS] == DEAD_PAGE) return;
+		writable(state)[state & PAGE_MASK] = DEAD;
+	}
+
+	@Override
+	void markDead(ExecutorService executor, MJIntSet states) {
+		forPages(executor, Math.min(pages.length, states.blockCount()), p -> {
+			if (states.blockCardinality(p) == PAGE_SIZE) {
+				pages[p] = DEAD_PAGE;
+			} else {
+				states.forEachInBlock(p, this::markDead);
+			}
+		});
+	}
+
+	@Override
+	void compact(ExecutorService executor) {
+		forPages(executor, pages.length, p -> {
+			byte[] page = pages[p];
+			if (isSentinel(page) || pinned[p]) return;
+			byte first = page[0];
+			if (first >= 0) {
+				pinned[p] = true;
+				return;
+			}
+			// The last page may be partial, its tail stays unreached
+			int end = (int) Math.min(PAGE_SIZE, index.size() - ((long) p << PAGE_BITS));
+			for (int i = 1; i < end; i++) {
+				if (page[i] != first) {
+					if (page[i] >= 0) pinned[p] = true;
+					return;
+				}
+			}
+			if (end == PAGE_SIZE && first == DEAD) pages[p] = DEAD_PAGE;
+			else if (end == PAGE_SIZE && first == UNREACHED) pages[p] = UNREACHED_PAGE;
+		});
+	}
+
+	/** Pages not on a sentinel, 64 KB each */
+	int allocatedPages() {
+		int count = 0;
+		for (byte[] page : pages) {
+			if (!isSentinel(page)) count++;
+		}
+		return count;
+	}
+
+	private interface PageAction {
+		void run(int page);
+	}
+
+	// Calls action for each page below count, one task per run of pages; no other thread may write meanwhile
+	private static void forPages(ExecutorService executor, int count, PageAction action) {
+		List<Future<?>> futures = new ArrayList<>();
+		for (int start = 0; start < count; start += PAGES_PER_TASK) {
+			int from = start;
+			int to = Math.min(start + PAGES_PER_TASK, count);
+			futures.add(executor.submit(() -> {
+				for (int p = from; p < to; p++) action.run(p);
+			}));
+		}
+		try {
+			for (Future<?> future : futures) future.get();
+		} catch (InterruptedException | ExecutionException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
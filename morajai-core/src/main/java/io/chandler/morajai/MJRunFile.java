@@ -0,0 +1,254 @@
+package io.chandler.morajai;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Sorted runs of distinct ints on disk, for MJExternalAnalysis.
+ *
+ * A run stores each value as the gap to the previous one minus 1, as a 7-bit varint, so a dense
+ * stretch of states costs a byte each.  Runs are written and read sequentially through a
+ * FileChannel with one small buffer, so any number of them can be merged in bounded memory.
+ */
+class MJRunFile {
+
+	static final int BUFFER_BYTES = 1 << 16;
+
+	/** Ascending distinct ints, read one at a time */
+	interface Source extends Closeable {
+		boolean hasNext();
+
+		/** The next value, without consuming it */
+		int peek();
+
+		int next();
+
+		@Override
+		void close();
+	}
+
+	static class Writer implements Closeable {
+		private final FileChannel channel;
+		private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES);
+		private int last = -1;
+		private long count = 0;
+
+		Writer(Path path) throws IOException {
+			channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		}
+
+		void add(int value) throws IOException {
+			if (value <= last) throw new IllegalArgumentException(value + " after " + last);
+			if (buffer.remaining() < 5) flush();
+			int gap = value - last - 1;
+			while ((gap & ~0x7F) != 0) {
+				buffer.put((byte) (gap & 0x7F | 0x80));
+				gap >>>= 7;
+			}
+			buffer.put((byte) gap);
+			last = value;
+			count++;
+		}
+
+		/** Writes the first count values of a sorted array, skipping repeats */
+		void addSorted(int[] values, int count) throws IOException {
+			for (int i = 0; i < count; i++) {
+				if (values[i] != last) add(values[i]);
+			}
+		}
+
+		/** Drains source into the run */
+		void addAll(Source source) throws IOException {
+			while (source.hasNext()) add(source.next());
+		}
+
+		long count() {
+			return count;
+		}
+
+		private void flush() throws IOException {
+			buffer.flip();
+			while (buffer.hasRemaining()) channel.write(buffer);
+			buffer.clear();
+		}
+
+		@Override
+		public void close() throws IOException {
+			flush();
+			channel.close();
+		}
+	}
+
+	static class Reader implements Source {
+		private final FileChannel channel;
+		private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES);
+		private boolean eof = false;
+		private boolean hasNext;
+		private int value = -1;
+
+		Reader(Path path) throws IOException {
+			channel = FileChannel.open(path, StandardOpenOption.READ);
+			buffer.flip();
+			advance();
+		}
+
+		@Override
+		public boolean hasNext() {
+			return hasNext;
+		}
+
+		@Override
+		public int peek() {
+			return value;
+		}
+
+		@Override
+		public int next() {
+			int result = value;
+			advance();
+			return result;
+		}
+
+		private void advance() {
+			try {
+				// A varint is at most 5 bytes
+				if (buffer.remaining() < 5 && !eof) {
+					buffer.compact();
+					while (buffer.hasRemaining()) {
+						if (channel.read(buffer) < 0) {
+							eof = true;
+							break;
+						}
+					}
+					buffer.flip();
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			if (!buffer.hasRemaining()) {
+				hasNext = false;
+				return;
+			}
+			int gap = 0, shift = 0;
+			byte b;
+			do {
+				b = buffer.get();
+				gap |= (b & 0x7F) << shift;
+				shift += 7;
+			} while (b < 0);
+			value += gap + 1;
+			hasNext = true;
+		}
+
+		@Override
+		public void close() {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+	/** Union of several sources, each value once */
+	static class Merge implements Source {
+		// Binary min-heap of the sources that still have values, ordered by peek()
+		private final Source[] heap;
+		private int size = 0;
+
+		Merge(List<? extends Source> sources) {
+			heap = new Source[sources.size()];
+			for (Source source : sources) {
+				if (source.hasNext()) {
+					heap[size++] = source;
+					siftUp(size - 1);
+				} else {
+					source.close();
+				}
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return size > 0;
+		}
+
+		@Override
+		public int peek() {
+			return heap[0].peek();
+		}
+
+		@Override
+		public int next() {
+			int value = heap[0].peek();
+			while (size > 0 && heap[0].peek() == value) {
+				heap[0].next();
+				if (!heap[0].hasNext()) {
+					heap[0].close();
+					heap[0] = heap[--size];
+					heap[size] = null;
+				}
+				if (size > 0) siftDown(0);
+			}
+			return value;
+		}
+
+		private void siftUp(int i) {
+			Source source = heap[i];
+			while (i > 0) {
+				int parent = (i - 1) >>> 1;
+				if (heap[parent].peek() <= source.peek()) break;
+				heap[i] = heap[parent];
+				i = parent;
+			}
+			heap[i] = source;
+		}
+
+		private void siftDown(int i) {
+			Source source = heap[i];
+			while (true) {
+				int child = 2 * i + 1;
+				if (child >= size) break;
+				if (child + 1 < size && heap[child + 1].peek() < heap[child].peek()) child++;
+				if (heap[child].peek() >= source.peek()) break;
+				heap[i] = heap[child];
+				i = child;
+			}
+			heap[i] = source;
+		}
+
+		@Override
+		public void close() {
+			for (int i = 0; i < size; i++) heap[i].close();
+			size = 0;
+		}
+	}
+
+	/** An empty source */
+	static final Source EMPTY = new Source() {
+		@Override
+		public boolean hasNext() {
+			return false;
+		}
+
+		@Override
+		public int peek() {
+			throw new IllegalStateException();
+		}
+
+		@Override
+		public int next() {
+			throw new IllegalStateException();
+		}
+
+		@Override
+		public void close() {
+		}
+	};
+}
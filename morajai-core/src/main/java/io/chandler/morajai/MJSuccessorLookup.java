@@ -0,0 +1,118 @@
+package io.chandler.morajai;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import io.chandler.morajai.MJAnalysis.DepthTracker;
+
+/**
+ * Resolves DepthTracker lookups for a block of successor states in memory order.
+ *
+ * The successors of consecutive states land all over the 1 GB tracker, so looking them up in
+ * generation order costs a cache and TLB miss nearly every time.  This counting-sorts the lookups
+ * by 64 KB region, reads the depths region by region, and scatters the answers back to their
+ * original positions.  The main method benchmarks both orders.
+ *
+ * Instances hold scratch space and are not thread safe; create one per worker thread.
+ */
+class MJSuccessorLookup {
+
+	static final int REGION_SHIFT = 16;
+	private static final int REGIONS = (999999999 >>> REGION_SHIFT) + 1;
+
+	private final int[] counts = new int[REGIONS + 1];
+	// order[k] is the original position of the k-th lookup in region order, sorted[k] its state
+	private int[] order = new int[0];
+	private int[] sorted = new int[0];
+
+	/**
+	 * answers[i] = depths.getDepth(states[i]) for i < count
+	 */
+	public void resolve(DepthTracker depths, int[] states, int count, int[] answers) {
+		if (order.length < count) {
+			order = new int[count];
+			sorted = new int[count];
+		}
+
+		// Counting sort by region, carrying the state along so the lookup pass reads sequentially
+		Arrays.fill(counts, 0);
+		for (int i = 0; i < count; i++) {
+			counts[(states[i] >>> REGION_SHIFT) + 1]++;
+		}
+		for (int r = 0; r < REGIONS; r++) {
+			counts[r + 1] += counts[r];
+		}
+		for (int i = 0; i < count; i++) {
+			int state = states[i];
+			int k = counts[state >>> REGION_SHIFT]++;
+			order[k] = i;
+			sorted[k] = state;
+		}
+
+		for (int k = 0; k < count; k++) {
+			sorted[k] = depths.getDepth(sorted[k]);
+		}
+		for (int k = 0; k < count; k++) {
+			answers[order[k]] = sorted[k];
+		}
+	}
+
+	/**
+	 * Benchmark: generation-order vs region-order lookups over a half-reached tracker.
+	 * Reports time and 4 KB page switches per state, the latter as a proxy for TLB/cache misses.
+	 * Run with -Xmx2g.
+	 */
+	public static void main(String[] args) {
+		int blockStates = args.length > 0 ? Integer.parseInt(args[0]) : 16384;
+		int blocks = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+		DepthTracker depths = new DepthTracker();
+		Random random = new Random(0);
+		for (int i = 0; i < 1000000000; i += 1 + random.nextInt(3)) {
+			depths.setDepth(i, random.nextInt(40));
+		}
+
+		MJSuccessorLookup lookup = new MJSuccessorLookup();
+		int[] block = new int[blockStates];
+		int[] successors = new int[blockStates * 9];
+		int[] answers = new int[blockStates * 9];
+		int[] sortedAnswers = new int[blockStates * 9];
+		int[] sortedStates = new int[blockStates * 9];
+		MJBatchSuccessors engine = MJBatchSuccessors.create();
+
+		for (int round = 0; round < 3; round++) {
+			long directTime = 0, sortedTime = 0, directSwitches = 0, sortedSwitches = 0;
+			for (int b = 0; b < blocks; b++) {
+				// Consecutive unreached states from a random scan position, as a worker would gather them
+				int state = random.nextInt(1000000000 - blockStates * 4);
+				for (int i = 0; i < blockStates; state++) {
+					if (depths.isUnreached(state)) block[i++] = state;
+				}
+				engine.successors(block, blockStates, successors);
+				int n = blockStates * 9;
+
+				long time = System.nanoTime();
+				for (int i = 0; i < n; i++) {
+					answers[i] = depths.getDepth(successors[i]);
+				}
+				directTime += System.nanoTime() - time;
+
+				time = System.nanoTime();
+				lookup.resolve(depths, successors, n, sortedAnswers);
+				sortedTime += System.nanoTime() - time;
+				if (!Arrays.equals(answers, 0, n, sortedAnswers, 0, n)) throw new IllegalStateException("Lookup mismatch");
+
+				for (int i = 0; i < n; i++) {
+					sortedStates[i] = successors[lookup.order[i]];
+				}
+				for (int i = 1; i < n; i++) {
+					if (successors[i] >>> 12 != successors[i - 1] >>> 12) directSwitches++;
+					if (sortedStates[i] >>> 12 != sortedStates[i - 1] >>> 12) sortedSwitches++;
+				}
+			}
+			double states = (double) blocks * blockStates;
+			System.out.printf("direct: %.1f ns/state, %.2f page switches/state   sorted: %.1f ns/state, %.2f page switches/state%n",
+				directTime / states, directSwitches / states, sortedTime / states, sortedSwitches / states);
+		}
+	}
+}
@@ -0,0 +1,102 @@
+package io.chandler.morajai;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+
+import io.chandler.morajai.MJAnalysis.DepthTracker;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+/**
+ * Top-down level expansion for the direction-optimizing level loop in MJAnalysis.
+ *
+ * The bottom-up scan touches every state to find the few thousand that join a small level.
+ * When the frontier is small it is cheaper to walk it instead: every unreached predecessor of a
+ * depth d - 1 state has depth d, which is exactly what the scan would find, so the output is
+ * unchanged.  Predecessors come from MoraJaiBox.predecessors, which MJTopDownTest checks against
+ * pressTile.
+ */
+class MJTopDown {
+
+	private static final int CHUNKS_PER_THREAD = 4;
+
+	/**
+	 * Writes depth to every unreached predecessor of the frontier
+	 * @param frontier Tracker indices of all states at depth - 1
+	 * @return Tracker indices of the states written, each once
+	 */
+	static IntArrayList expand(ExecutorService executor, int threads, DepthTracker depths, IntArrayList frontier, int depth) {
+		return expand(executor, threads, depths.index, depths::isUnreached, state -> depths.setDepth(state, depth), frontier);
+	}
+
+	/**
+	 * expand over any record of the visited states, e.g. an MJIntSet for the bounded mode
+	 * @param unvisited Read by the workers, which all finish before the first visit
+	 * @param visit Called once for each state found, on the calling thread
+	 */
+	static IntArrayList expand(ExecutorService executor, int threads, StateIndex index, IntPredicate unvisited, IntConsumer visit, IntArrayList frontier) {
+		int numChunks = Math.max(1, Math.min(threads * CHUNKS_PER_THREAD, frontier.size() / 1024));
+		int chunkSize = (frontier.size() + numChunks - 1) / numChunks;
+
+		// Workers only read the visited states, so candidates found from several frontier states are deduplicated on commit
+		List<Future<IntArrayList>> futures = new ArrayList<>();
+		for (int start = 0; start < frontier.size(); start += chunkSize) {
+			int chunkStart = start;
+			int chunkEnd = Math.min(start + chunkSize, frontier.size());
+			futures.add(executor.submit(() -> {
+				int[] predecessors = new int[MoraJaiBox.MAX_PREDECESSORS];
+				IntArrayList candidates = new IntArrayList();
+				for (int i = chunkStart; i < chunkEnd; i++) {
+					int state = index.toState(frontier.getInt(i));
+					int count = MoraJaiBox.predecessors(state, StateCodec.pack(state), predecessors, 0);
+					index.toIndex(predecessors, count);
+					for (int p = 0; p < count; p++) {
+						int predecessor = predecessors[p];
+						// Outside the palette, e.g. blue mimicking white into gray
+						if (predecessor >= 0 && unvisited.test(predecessor)) candidates.add(predecessor);
+					}
+				}
+				return candidates;
+			}));
+		}
+
+		IntArrayList found = new IntArrayList();
+		try {
+			// A visit may restructure the record the workers read, e.g. an MJIntSet container
+			List<IntArrayList> results = new ArrayList<>();
+			for (Future<IntArrayList> future : futures) {
+				results.add(future.get());
+			}
+			for (IntArrayList candidates : results) {
+				for (int i = 0; i < candidates.size(); i++) {
+					int state = candidates.getInt(i);
+					if (unvisited.test(state)) {
+						visit.accept(state);
+						found.add(state);
+					}
+				}
+			}
+		} catch (InterruptedException | ExecutionException e) {
+			throw new RuntimeException(e);
+		}
+		return found;
+	}
+
+	/**
+	 * Throughput of MoraJaiBox.predecessors over the first 1e7 states, as the expansion uses it.
+	 */
+	public static void main(String[] args) {
+		int[] predecessors = new int[MoraJaiBox.MAX_PREDECESSORS];
+		long sum = 0;
+		long time = System.nanoTime();
+		long packed = StateCodec.pack(0);
+		for (int state = 0; state < 10000000; state++, packed = StateCodec.next(packed)) {
+			sum += MoraJaiBox.predecessors(state, packed, predecessors, 0);
+		}
+		System.out.printf("%.1f ns/state, %.2f predecessors/state%n", (System.nanoTime() - time) / 1e7, sum / 1e7);
+	}
+}
@@ -0,0 +1,153 @@
+package io.chandler.morajai;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMD port of MoraJaiBox.pressDelta using jdk.incubator.vector.
+ *
+ * Each lane holds one state; the press of a given tile is evaluated for every color at once
+ * and the per-lane result is selected with masks.  Color groups absent from the whole block
+ * are skipped.  Only reference through MJBatchSuccessors.create(), which falls back to the
+ * scalar engine when the incubator module is not enabled.
+ */
+class MJVectorSuccessors extends MJBatchSuccessors {
+
+	private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+	private static final int LANES = SPECIES.length();
+
+	// Color ordinals (must match MoraJaiBox.Color)
+	private static final int GY = 0, RD = 1, GN = 2, BK = 3, WH = 4, PI = 5, PU = 6, YE = 7, BU = 8, OR = 9;
+	private static final int[] PERMUTATION_COLORS = {GN, BK, PI, PU, YE};
+
+	private static final int[] POW10 = MoraJaiBox.POW10;
+
+	// Scatter map from lane to its row of 9 successors
+	private static final int[] LANE_OFFSETS = new int[LANES];
+	static {
+		for (int i = 0; i < LANES; i++) {
+			LANE_OFFSETS[i] = i * 9;
+		}
+	}
+
+	// Packed tiles 0..7 and tile 8 of each lane
+	private final int[] lo = new int[LANES];
+	private final int[] hi = new int[LANES];
+	// Tile-major colors, digits[tile * LANES + lane]
+	private final int[] digits = new int[9 * LANES];
+
+	@Override
+	public int lanes() {
+		return LANES;
+	}
+
+	@Override
+	public String name() {
+		return "vector" + LANES;
+	}
+
+	@Override
+	public void successors(int[] states, int count, int[] out) {
+		int base = 0;
+		for (; base + LANES <= count; base += LANES) {
+			block(states, base, out);
+		}
+		for (; base < count; base++) {
+			MoraJaiBox.successors(states[base], StateCodec.pack(states[base]), out, base * 9);
+		}
+	}
+
+	private IntVector tile(int tile) {
+		return IntVector.fromArray(SPECIES, digits, tile * LANES);
+	}
+
+	private void block(int[] states, int base, int[] out) {
+		for (int lane = 0; lane < LANES; lane++) {
+			long packed = StateCodec.pack(states[base + lane]);
+			lo[lane] = (int) packed;
+			hi[lane] = (int) (packed >>> 32);
+		}
+		IntVector packedLo = IntVector.fromArray(SPECIES, lo, 0);
+		for (int t = 0; t < 8; t++) {
+			packedLo.lanewise(VectorOperators.LSHR, t * 4).and(0xF).intoArray(digits, t * LANES);
+		}
+		IntVector.fromArray(SPECIES, hi, 0).intoArray(digits, 8 * LANES);
+
+		IntVector zero = IntVector.zero(SPECIES);
+		IntVector state = IntVector.fromArray(SPECIES, states, base);
+
+		// Red: white → black at every white, black → self at every black
+		IntVector whitePos = zero;
+		IntVector blackPos = zero;
+		for (int i = 0; i < 9; i++) {
+			IntVector c = tile(i);
+			whitePos = whitePos.add(POW10[i], c.eq(WH));
+			blackPos = blackPos.add(POW10[i], c.eq(BK));
+		}
+
+		IntVector center = tile(4);
+		for (int t = 0; t < 9; t++) {
+			IntVector self = tile(t);
+			IntVector color = self.blend(center, self.eq(BU));
+			IntVector delta = zero;
+
+			for (int k : PERMUTATION_COLORS) {
+				int[] pairs = MoraJaiBox.permutationPairs(k, t);
+				if (pairs.length == 0) continue;
+				VectorMask<Integer> m = color.eq(k);
+				if (!m.anyTrue()) continue;
+				IntVector d = zero;
+				for (int i = 0; i < pairs.length; i += 2) {
+					int dst = pairs[i];
+					d = d.add(tile(pairs[i + 1]).sub(tile(dst)).mul(POW10[dst]));
+				}
+				delta = delta.blend(d, m);
+			}
+
+			VectorMask<Integer> m = color.eq(RD);
+			if (m.anyTrue()) {
+				// (BK - WH) == -1
+				IntVector d = self.sub(BK).mul(blackPos).sub(whitePos);
+				delta = delta.blend(d, m);
+			}
+
+			m = color.eq(WH);
+			if (m.anyTrue()) {
+				// GY == 0, so the delta factors as self * (Σ grays - Σ matching - self position)
+				IntVector acc = zero;
+				for (int n : MoraJaiBox.neighbors(t)) {
+					IntVector c = tile(n);
+					acc = acc.add(POW10[n], c.eq(GY)).sub(POW10[n], c.eq(self));
+				}
+				IntVector d = self.mul(acc.sub(POW10[t]));
+				delta = delta.blend(d, m);
+			}
+
+			m = color.eq(OR);
+			if (m.anyTrue()) {
+				int[] neighbors = MoraJaiBox.neighbors(t);
+				IntVector maxCount = zero;
+				IntVector attaining = zero;
+				IntVector maxColor = zero;
+				for (int j : neighbors) {
+					IntVector cj = tile(j);
+					IntVector count = zero;
+					for (int k : neighbors) {
+						count = count.add(1, tile(k).eq(cj));
+					}
+					VectorMask<Integer> greater = count.compare(VectorOperators.GT, maxCount);
+					VectorMask<Integer> equal = count.eq(maxCount);
+					maxCount = maxCount.max(count);
+					attaining = attaining.blend(1, greater).add(1, equal);
+					maxColor = maxColor.blend(cj, greater);
+				}
+				IntVector d = maxColor.sub(self).mul(POW10[t]);
+				delta = delta.blend(zero.blend(d, attaining.eq(maxCount)), m);
+			}
+
+			state.add(delta).intoArray(out, base * 9 + t, LANE_OFFSETS, 0);
+		}
+	}
+}
@@ -1,6 +1,7 @@
 package io.chandler.morajai;
 
 import java.util.Arrays;
+import java.util.function.IntConsumer;
 
 public class MoraJaiBox {
 	// Constants for press results
@@ -26,12 +27,102 @@ public class MoraJaiBox {
 
 	static final Color[] COLOR_VALUES = Color.values();
 
+	// Color ordinals as int constants for the stateless press path (must match Color)
+	private static final int GY = 0, RD = 1, GN = 2, BK = 3, WH = 4, PI = 5, PU = 6, YE = 7, BU = 8, OR = 9;
+
+	static final int[] POW10 = {1, 10, 100, 1000, 10000, 100000, 1000000, 10000000, 100000000};
+
+	private static final int[][] WHITE_OFFSETS = {{-1, 0}, {1, 0}, {0, -1}, {0, 1}};
+	// Clockwise from west, matching subPressPink
+	private static final int[][] PINK_OFFSETS = {{-1, 0}, {-1, 1}, {0, 1}, {1, 1}, {1, 0}, {1, -1}, {0, -1}, {-1, -1}};
+
+	// Orthogonal neighbors of each tile (W, E, N, S order as in subPressOrange)
+	private static final int[][] NEIGHBORS = new int[9][];
+
+	// Flattened (dst, src) pairs per [color][tile] for colors that only permute tiles;
+	//   null for colors that change the multiset (red, white, orange)
+	private static final int[][][] PERMUTATIONS = new int[Color.N_COLORS][][];
+	// Where each tile ends up per [color][tile], for the same colors
+	private static final int[][][] MOVED_TO = new int[Color.N_COLORS][][];
+
+	static {
+		for (int tile = 0; tile < 9; tile++) {
+			int[] n = new int[4];
+			int count = 0;
+			for (int[] offset : WHITE_OFFSETS) {
+				int offsetTile = offsetTileIdx(tile, offset[0], offset[1]);
+				if (offsetTile != -1) n[count++] = offsetTile;
+			}
+			NEIGHBORS[tile] = Arrays.copyOf(n, count);
+		}
+
+		for (int color : new int[] {GY, GN, BK, PI, PU, YE, BU}) {
+			PERMUTATIONS[color] = new int[9][];
+			MOVED_TO[color] = new int[9][9];
+			for (int tile = 0; tile < 9; tile++) {
+				int[] src = {0, 1, 2, 3, 4, 5, 6, 7, 8};
+				switch (color) {
+					case GN: swap(src, tile, 8 - tile); break;
+					case YE: if (tile >= 3) swap(src, tile, tile - 3); break;
+					case PU: if (tile < 6) swap(src, tile, tile + 3); break;
+					case BK: {
+						int tile0 = (tile / 3) * 3;
+						swap(src, tile0, tile0 + 2);
+						swap(src, tile0 + 1, tile0 + 2);
+						break;
+					}
+					case PI: {
+						int[] ring = new int[8];
+						int total = 0;
+						for (int[] offset : PINK_OFFSETS) {
+							int offsetTile = offsetTileIdx(tile, offset[0], offset[1]);
+							if (offsetTile != -1) ring[total++] = offsetTile;
+						}
+						for (int i = 0; i < total; i++) {
+							src[ring[i]] = ring[(i + 1) % total];
+						}
+						break;
+					}
+					default: break; // Gray, and blue mimicking blue
+				}
+				int[] pairs = new int[18];
+				int count = 0;
+				for (int dst = 0; dst < 9; dst++) {
+					if (src[dst] != dst) {
+						pairs[count++] = dst;
+						pairs[count++] = src[dst];
+					}
+				}
+				PERMUTATIONS[color][tile] = Arrays.copyOf(pairs, count);
+				for (int dst = 0; dst < 9; dst++) {
+					MOVED_TO[color][tile][src[dst]] = dst;
+				}
+			}
+		}
+	}
+
+	// Table access for the batch engines; null for colors that are not pure permutations
+	static int[] permutationPairs(int color, int tile) {
+		return PERMUTATIONS[color] == null ? null : PERMUTATIONS[color][tile];
+	}
+
+	static int[] neighbors(int tile) {
+		return NEIGHBORS[tile];
+	}
+
+	private static void swap(int[] arr, int i, int j) {
+		int temp = arr[i];
+		arr[i] = arr[j];
+		arr[j] = temp;
+	}
+
 	// State variables
 	private boolean initialized = false;
 	private final int[] targetColors = new int[4];
 	private final boolean[] outerState = new boolean[4];
-	private final int[] initTileColors = new int[9];
-	private final int[] tileColors = new int[9];
+	// Tiles packed 4 bits apiece, see StateCodec
+	private long initTiles = 0;
+	private long tiles = 0;
 	private final int[] scratchpad = new int[Math.max(8, Color.N_COLORS + 1)];
 
 	// Constructor
@@ -41,10 +132,6 @@ public class MoraJaiBox {
 			targetColors[i] = Color.C_GY.ordinal();
 			outerState[i] = false;
 		}
-		for (int i = 0; i < 9; i++) {
-			initTileColors[i] = Color.C_GY.ordinal();
-			tileColors[i] = Color.C_GY.ordinal();
-		}
 	}
 
 	public void init(Color[] targetColors, Color[] tileColors) {
@@ -55,14 +142,20 @@ public class MoraJaiBox {
 		for (int i = 0; i < 4; i++) {
 			this.targetColors[i] = targetColors[i].ordinal();
 		}
+		long packed = 0;
 		for (int i = 0; i < 9; i++) {
-			this.initTileColors[i] = tileColors[i].ordinal();
+			packed = StateCodec.set(packed, i, tileColors[i].ordinal());
 		}
+		this.initTiles = packed;
 		reset();
 		initialized = true;
 	}
 	
 	public void initFromState(Color[] targetColors, int state) {
+		initFromPacked(targetColors, StateCodec.pack(state));
+	}
+
+	public void initFromPacked(Color[] targetColors, long packed) {
 		if (targetColors.length != 4) {
 			throw new IllegalArgumentException("Invalid array lengths");
 		}
@@ -71,27 +164,22 @@ public class MoraJaiBox {
 			this.targetColors[i] = targetColors[i].ordinal();
 		}
 
-		for (int i = 0; i < 9; i++) {
-			initTileColors[i] = state % 10;
-			state /= 10;
-		}
+		initTiles = packed;
 
 		reset();
 		initialized = true;
 	}
 
 	public int getState() {
-		int state = 0;
-		int multiplier = 1;
-		for (int i = 0; i < 9; i++) {
-			state += tileColors[i] * multiplier;   // tile 0 → 10^0, tile 1 → 10^1, …
-			multiplier *= 10;
-		}
-		return state;
+		return StateCodec.unpack(tiles);   // tile 0 → 10^0, tile 1 → 10^1, …
+	}
+
+	public long getPackedState() {
+		return tiles;
 	}
 
 	public void reset() {
-		System.arraycopy(initTileColors, 0, tileColors, 0, 9);
+		tiles = initTiles;
 		for (int i = 0; i < 4; i++) {
 			outerState[i] = false;
 		}
@@ -108,20 +196,30 @@ public class MoraJaiBox {
 
 	public boolean areInnerMatchingOuter() {
 		for (int i = 0; i < 4; i++) {
-			if (tileColors[getTileToCheck(i)] != targetColors[i]) {
+			if (tile(getTileToCheck(i)) != targetColors[i]) {
 				return false;
 			}
 		}
 		return true;
 	}
 
+	private int tile(int tile) {
+		return StateCodec.get(tiles, tile);
+	}
+
+	private void setTile(int tile, int color) {
+		tiles = StateCodec.set(tiles, tile, color);
+	}
+
 	private void swapTiles(int tile1, int tile2) {
-		int temp = tileColors[tile1];
-		tileColors[tile1] = tileColors[tile2];
-		tileColors[tile2] = temp;
+		tiles = StateCodec.swap(tiles, tile1, tile2);
 	}
 
 	private int getOffsetTileIdx(int tile, int offsetX, int offsetY) {
+		return offsetTileIdx(tile, offsetX, offsetY);
+	}
+
+	private static int offsetTileIdx(int tile, int offsetX, int offsetY) {
 		int curX = tile % 3;
 		int curY = tile / 3;
 		if (curX + offsetX < 0 || curX + offsetX >= 3) return -1;
@@ -132,12 +230,12 @@ public class MoraJaiBox {
 	private int getOffsetColor(int tile, int offsetX, int offsetY) {
 		int offsetTile = getOffsetTileIdx(tile, offsetX, offsetY);
 		if (offsetTile == -1) return -1;
-		return tileColors[offsetTile];
+		return tile(offsetTile);
 	}
 
 	public Color getTileColor(int tile) {
 		if (!initialized || tile >= 9) return Color.C_GY;
-		return COLOR_VALUES[tileColors[tile]];
+		return COLOR_VALUES[tile(tile)];
 	}
 
 	public Color getOuterColor(int outer) {
@@ -160,11 +258,13 @@ public class MoraJaiBox {
 
 	private void subPressRed(int tile) {
 		// Turn all white tiles black, and all black tiles red
+		int selfColor = tile(tile); // C_RD, except use self to propagate blue behavior
 		for (int i = 0; i < 9; i++) {
-			if (tileColors[i] == Color.C_WH.ordinal()) {
-				tileColors[i] = Color.C_BK.ordinal();
-			} else if (tileColors[i] == Color.C_BK.ordinal()) {
-				tileColors[i] = tileColors[tile]; // C_RD, except use self to propagate blue behavior
+			int color = tile(i);
+			if (color == Color.C_WH.ordinal()) {
+				setTile(i, Color.C_BK.ordinal());
+			} else if (color == Color.C_BK.ordinal()) {
+				setTile(i, selfColor);
 			}
 		}
 	}
@@ -213,7 +313,7 @@ public class MoraJaiBox {
 		}
 
 		if (maxColorCount == 1) {
-			tileColors[tile] = maxColor;
+			setTile(tile, maxColor);
 		}
 	}
 
@@ -246,30 +346,30 @@ public class MoraJaiBox {
 
 		if (totalTiles > 0) {
 			// Rotate the tiles
-			int temp = tileColors[offsetTiles[0]];
+			int temp = tile(offsetTiles[0]);
 			for (int i = 0; i < totalTiles - 1; i++) {
-				tileColors[offsetTiles[i]] = tileColors[offsetTiles[i + 1]];
+				setTile(offsetTiles[i], tile(offsetTiles[i + 1]));
 			}
-			tileColors[offsetTiles[totalTiles - 1]] = temp;
+			setTile(offsetTiles[totalTiles - 1], temp);
 		}
 	}
 
-	private static final int[][] WHITE_OFFSETS = {{-1, 0}, {1, 0}, {0, -1}, {0, 1}};
 	private void subPressWhite(int tile) {
 		// Invert (gray -> white, white -> gray) adjacent gray tiles and self
-		int selfColor = tileColors[tile]; // C_WH, except use self to propagate blue behavior
+		int selfColor = tile(tile); // C_WH, except use self to propagate blue behavior
 
 		for (int[] offset : WHITE_OFFSETS) {
 			int offsetTile = getOffsetTileIdx(tile, offset[0], offset[1]);
 			if (offsetTile != -1) {
-				if (tileColors[offsetTile] == Color.C_GY.ordinal()) {
-					tileColors[offsetTile] = selfColor;
-				} else if (tileColors[offsetTile] == selfColor) {
-					tileColors[offsetTile] = Color.C_GY.ordinal();
+				int color = tile(offsetTile);
+				if (color == Color.C_GY.ordinal()) {
+					setTile(offsetTile, selfColor);
+				} else if (color == selfColor) {
+					setTile(offsetTile, Color.C_GY.ordinal());
 				}
 			}
 		}
-		tileColors[tile] = Color.C_GY.ordinal();
+		setTile(tile, Color.C_GY.ordinal());
 	}
 
 	private void subPressBlack(int tile) {
@@ -277,19 +377,18 @@ public class MoraJaiBox {
 		int tile0 = (tile / 3) * 3;
 		int tile1 = tile0 + 1;
 		int tile2 = tile0 + 2;
-		int temp = tileColors[tile0];
-		tileColors[tile0] = tileColors[tile2];
-		tileColors[tile2] = tileColors[tile1];
-		tileColors[tile1] = temp;
+		// (t0, t1, t2) → (t2, t0, t1) is two swaps
+		swapTiles(tile0, tile2);
+		swapTiles(tile1, tile2);
 	}
 
 	public int pressTile(int tile) {
 		if (tile >= 9) return PRESS_OK;
 		if (isSolved()) return PRESS_COMPLETED;
 
-		Color color = COLOR_VALUES[tileColors[tile]];
+		Color color = COLOR_VALUES[tile(tile)];
 		if (color == Color.C_BU) {
-			color = COLOR_VALUES[tileColors[4]];
+			color = COLOR_VALUES[tile(4)];
 		}
 		
 		switch (color) {
@@ -308,7 +407,7 @@ public class MoraJaiBox {
 		// Check if any completed outers got messed up
 		for (int i = 0; i < 4; i++) {
 			int checkTile = getTileToCheck(i);
-			if (outerState[i] && tileColors[checkTile] != targetColors[i]) {
+			if (outerState[i] && tile(checkTile) != targetColors[i]) {
 				outerState[i] = false;
 			}
 		}
@@ -321,7 +420,7 @@ public class MoraJaiBox {
 
 		int checkTile = getTileToCheck(outer);
 
-		if (tileColors[checkTile] == targetColors[outer]) {
+		if (tile(checkTile) == targetColors[outer]) {
 			outerState[outer] = true;
 			return isSolved() ? PRESS_COMPLETED : PRESS_OK;
 		} else {
@@ -330,4 +429,234 @@ public class MoraJaiBox {
 			return PRESS_RESET;
 		}
 	}
+
+	// Tiles a goal leaves free, the corners being the targets
+	private static final int[] FREE_TILES = {1, 3, 4, 5, 7};
+
+	/**
+	 * Passes each of the 100000 goal states (decimal) to action, the corners set to the targets and the
+	 * free tiles 1, 3, 4, 5, 7 counted as decimal digits, tile 1 lowest
+	 */
+	public static void forEachGoal(Color[] targetColors, IntConsumer action) {
+		if (targetColors.length != 4) {
+			throw new IllegalArgumentException("Invalid array lengths");
+		}
+		long corners = 0;
+		corners = StateCodec.set(corners, 0, targetColors[0].ordinal());
+		corners = StateCodec.set(corners, 2, targetColors[1].ordinal());
+		corners = StateCodec.set(corners, 8, targetColors[2].ordinal());
+		corners = StateCodec.set(corners, 6, targetColors[3].ordinal());
+
+		for (int i = 0; i < 100000; i++) {
+			long packed = corners;
+			int decomp = i;
+			for (int tile : FREE_TILES) {
+				packed = StateCodec.set(packed, tile, decomp % 10);
+				decomp /= 10;
+			}
+			action.accept(StateCodec.unpack(packed));
+		}
+	}
+
+	/**
+	 * Stateless equivalent of initFromState + pressTile(i) + getState for i = 0..8.
+	 * Outers are inactive after initFromState, so the result does not depend on the target colors.
+	 * @param state Decimal state index
+	 * @param out Receives the 9 successor indices, out[i] for a press of tile i
+	 */
+	public static void successors(int state, int[] out) {
+		successors(state, StateCodec.pack(state), out);
+	}
+
+	/**
+	 * As successors(int, int[]), for callers that already hold the packed form of the state
+	 */
+	public static void successors(int state, long packed, int[] out) {
+		successors(state, packed, out, 0);
+	}
+
+	static void successors(int state, long packed, int[] out, int offset) {
+		for (int tile = 0; tile < 9; tile++) {
+			out[offset + tile] = state + pressDelta(packed, tile);
+		}
+	}
+
+	/**
+	 * Change in the decimal state index caused by pressing a tile
+	 */
+	static int pressDelta(long packed, int tile) {
+		int self = StateCodec.get(packed, tile);
+		int color = self == BU ? StateCodec.get(packed, 4) : self;
+
+		int[][] permutation = PERMUTATIONS[color];
+		if (permutation != null) {
+			int[] pairs = permutation[tile];
+			int delta = 0;
+			for (int i = 0; i < pairs.length; i += 2) {
+				int dst = pairs[i];
+				delta += (StateCodec.get(packed, pairs[i + 1]) - StateCodec.get(packed, dst)) * POW10[dst];
+			}
+			return delta;
+		}
+
+		int delta = 0;
+		switch (color) {
+			case RD:
+				// White → black, black → self (red, or blue mimicking red)
+				for (int i = 0; i < 9; i++) {
+					int c = StateCodec.get(packed, i);
+					if (c == WH) {
+						delta += (BK - WH) * POW10[i];
+					} else if (c == BK) {
+						delta += (self - BK) * POW10[i];
+					}
+				}
+				return delta;
+			case WH:
+				// Neighbors toggle between gray and self, self → gray
+				for (int n : NEIGHBORS[tile]) {
+					int c = StateCodec.get(packed, n);
+					if (c == GY) {
+						delta += (self - GY) * POW10[n];
+					} else if (c == self) {
+						delta += (GY - self) * POW10[n];
+					}
+				}
+				return delta + (GY - self) * POW10[tile];
+			case OR: {
+				// A color with count m is seen by exactly m neighbors, so the maximum
+				//   is unique when the neighbors attaining it number exactly m
+				int[] neighbors = NEIGHBORS[tile];
+				int maxCount = 0, attaining = 0, maxColor = -1;
+				for (int j = 0; j < neighbors.length; j++) {
+					int c = StateCodec.get(packed, neighbors[j]);
+					int count = 0;
+					for (int k = 0; k < neighbors.length; k++) {
+						if (StateCodec.get(packed, neighbors[k]) == c) count++;
+					}
+					if (count > maxCount) {
+						maxCount = count;
+						maxColor = c;
+						attaining = 1;
+					} else if (count == maxCount) {
+						attaining++;
+					}
+				}
+				return attaining == maxCount ? (maxColor - self) * POW10[tile] : 0;
+			}
+			default:
+				return 0;
+		}
+	}
+
+	/**
+	 * Upper bound on the predecessors of one state: per tile at most 256 red subsets, plus one
+	 * candidate per other effective color pressed directly or through blue.
+	 */
+	public static final int MAX_PREDECESSORS = 9 * (256 + 2 * Color.N_COLORS);
+
+	/**
+	 * Inverse of successors: every state that a single press turns into this one, in no particular
+	 * order and including the state itself for presses that change nothing.  A state reached by
+	 * presses of several tiles is listed once per tile.
+	 * @param out Must hold MAX_PREDECESSORS entries from offset
+	 * @return Number of predecessors written
+	 */
+	public static int predecessors(int state, long packed, int[] out, int offset) {
+		int count = 0;
+		for (int tile = 0; tile < 9; tile++) {
+			count += predecessors(state, packed, tile, out, offset + count);
+		}
+		return count;
+	}
+
+	/**
+	 * States that become this one when tile is pressed.  For each effective color the press is
+	 * undone exactly, and the candidate is kept if that really is the color at its tile: the tile
+	 * itself, or the center when the tile is blue.  Orange's majority rule is checked through
+	 * pressDelta instead.
+	 * @return Number of predecessors written
+	 */
+	static int predecessors(int state, long packed, int tile, int[] out, int offset) {
+		int count = 0;
+		for (int color = 0; color < Color.N_COLORS; color++) {
+			int[][] permutation = PERMUTATIONS[color];
+			if (permutation == null) continue;
+			// Read the pressed tile and the center where the permutation moved them
+			int[] movedTo = MOVED_TO[color][tile];
+			int self = StateCodec.get(packed, movedTo[tile]);
+			if ((self == BU ? StateCodec.get(packed, movedTo[4]) : self) != color) continue;
+			// Moved tiles read x[src] = y[dst]
+			int[] pairs = permutation[tile];
+			long x = packed;
+			for (int i = 0; i < pairs.length; i += 2) {
+				x = StateCodec.set(x, pairs[i + 1], StateCodec.get(packed, pairs[i]));
+			}
+			out[offset + count++] = StateCodec.unpack(x);
+		}
+
+		// Red and orange leave the pressed tile as it was, white turns it gray
+		int self = StateCodec.get(packed, tile);
+		if ((self == BU ? StateCodec.get(packed, 4) : self) == RD) {
+			count += redPredecessors(packed, tile, self, out, offset + count);
+		}
+		if (self == GY) {
+			count += whitePredecessors(packed, tile, WH, out, offset + count);
+			if (tile != 4) count += whitePredecessors(packed, tile, BU, out, offset + count);
+		}
+		count += orangePredecessor(state, packed, tile, OR, out, offset + count);
+		if (tile != 4) count += orangePredecessor(state, packed, tile, BU, out, offset + count);
+		return count;
+	}
+
+	// Red leaves no white, turns white → black and black → self, so each black came from white and each self from self or black
+	private static int redPredecessors(long packed, int tile, int self, int[] out, int offset) {
+		int[] selfTiles = new int[9];
+		int n = 0;
+		long x = packed;
+		for (int i = 0; i < 9; i++) {
+			int c = StateCodec.get(packed, i);
+			if (c == WH) return 0;
+			if (c == BK) {
+				x = StateCodec.set(x, i, WH);
+			} else if (c == self && i != tile) {
+				selfTiles[n++] = i;
+			}
+		}
+		for (int subset = 0; subset < 1 << n; subset++) {
+			long candidate = x;
+			for (int i = 0; i < n; i++) {
+				if ((subset >> i & 1) != 0) candidate = StateCodec.set(candidate, selfTiles[i], BK);
+			}
+			out[offset + subset] = StateCodec.unpack(candidate);
+		}
+		return 1 << n;
+	}
+
+	// Toggles are their own inverse, and the pressed tile was self
+	private static int whitePredecessors(long packed, int tile, int self, int[] out, int offset) {
+		long x = StateCodec.set(packed, tile, self);
+		for (int n : NEIGHBORS[tile]) {
+			int c = StateCodec.get(packed, n);
+			if (c == GY) {
+				x = StateCodec.set(x, n, self);
+			} else if (c == self) {
+				x = StateCodec.set(x, n, GY);
+			}
+		}
+		// Blue mimics white only with a white center, which it doesn't toggle
+		if (self == BU && StateCodec.get(x, 4) != WH) return 0;
+		out[offset] = StateCodec.unpack(x);
+		return 1;
+	}
+
+	// Only the pressed tile changes, from self, so the one candidate is checked against the majority rule
+	private static int orangePredecessor(int state, long packed, int tile, int self, int[] out, int offset) {
+		long x = StateCodec.set(packed, tile, self);
+		if (self == BU && StateCodec.get(x, 4) != OR) return 0;
+		int candidate = StateCodec.unpack(x);
+		if (candidate + pressDelta(x, tile) != state) return 0;
+		out[offset] = candidate;
+		return 1;
+	}
 }
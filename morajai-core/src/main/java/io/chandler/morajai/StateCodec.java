@@ -0,0 +1,76 @@
+package io.chandler.morajai;
+
+/**
+ * Packed nibble representation of the 9 tiles.
+ *
+ * Tile i lives in bits [4i, 4i+4) of a long, so tile access is a shift and mask
+ * and a swap is a single xor delta.  The decimal index (tile 0 → 10^0, tile 1 → 10^1, …)
+ * used by DepthTracker and the output files converts losslessly in either direction
+ * through 3-digit lookup tables instead of nine div/mod steps.
+ */
+public final class StateCodec {
+
+	public static final int TILE_BITS = 4;
+	public static final long TILE_MASK = 0xFL;
+
+	// Decimal triplet (0..999) → 12 packed bits
+	private static final short[] PACK_1000 = new short[1000];
+	// 12 packed bits → decimal triplet, or -1 if any nibble is not a color
+	private static final short[] UNPACK_4096 = new short[4096];
+
+	static {
+		for (int i = 0; i < 1000; i++) {
+			PACK_1000[i] = (short)((i % 10) | (i / 10 % 10) << 4 | (i / 100) << 8);
+		}
+		for (int i = 0; i < 4096; i++) {
+			int d0 = i & 0xF, d1 = (i >> 4) & 0xF, d2 = (i >> 8) & 0xF;
+			UNPACK_4096[i] = (short)(d0 > 9 || d1 > 9 || d2 > 9 ? -1 : d0 + d1 * 10 + d2 * 100);
+		}
+	}
+
+	private StateCodec() {}
+
+	/** Decimal state index → packed tiles */
+	public static long pack(int state) {
+		int lo = state % 1000;
+		state /= 1000;
+		int mid = state % 1000;
+		int hi = state / 1000;
+		return PACK_1000[lo] | (long)PACK_1000[mid] << 12 | (long)PACK_1000[hi] << 24;
+	}
+
+	/** Packed tiles → decimal state index */
+	public static int unpack(long packed) {
+		return UNPACK_4096[(int)packed & 0xFFF]
+			+ UNPACK_4096[(int)(packed >>> 12) & 0xFFF] * 1000
+			+ UNPACK_4096[(int)(packed >>> 24) & 0xFFF] * 1000000;
+	}
+
+	public static int get(long packed, int tile) {
+		return (int)(packed >>> (tile << 2)) & 0xF;
+	}
+
+	public static long set(long packed, int tile, int color) {
+		int shift = tile << 2;
+		return (packed & ~(TILE_MASK << shift)) | (long)color << shift;
+	}
+
+	public static long swap(long packed, int tile1, int tile2) {
+		long delta = ((packed >>> (tile1 << 2)) ^ (packed >>> (tile2 << 2))) & TILE_MASK;
+		return packed ^ (delta << (tile1 << 2)) ^ (delta << (tile2 << 2));
+	}
+
+	/**
+	 * Packed form of unpack(packed) + 1, i.e. a base-10 odometer on the nibbles.
+	 * Lets the sequential scans walk the index space without any division.
+	 */
+	public static long next(long packed) {
+		int shift = 0;
+		// Each nibble at 9 rolls over to 0 and carries into the next
+		while ((packed >>> shift & TILE_MASK) == 9) {
+			packed &= ~(TILE_MASK << shift);
+			shift += 4;
+		}
+		return packed + (1L << shift);
+	}
+}
@@ -0,0 +1,162 @@
+package io.chandler.morajai;
+
+import java.util.Arrays;
+
+import io.chandler.morajai.MoraJaiBox.Color;
+
+/**
+ * Mixed-radix index over the states whose tiles all come from a restricted palette.
+ *
+ * With k palette colors, tile i contributes rank(color) * k^i, so the index space is k^9
+ * (387,420,489 for noBlue instead of 1e9) and keeps the decimal ordering of the states.
+ * The full palette is the identity mapping.  Trackers, bitsets and scans work on indices;
+ * states are translated back to the canonical decimal form only for successors and output.
+ *
+ * A palette is only valid if no press can produce a color outside it: red turns white into
+ * black and white toggles gray, so those need black and gray respectively.
+ */
+public final class StateIndex {
+
+	public static final StateIndex FULL = new StateIndex();
+	public static final StateIndex NO_BLUE = new StateIndex(Color.C_BU);
+
+	private final int radix;
+	private final int size;
+	private final int radix3;
+	private final int radix6;
+	private final boolean identity;
+
+	// Palette rank → color ordinal, and color ordinal → rank or -1
+	private final int[] rankColor;
+	private final int[] colorRank;
+	// Next palette color in an odometer step, wrapping to the first color
+	private final int[] nextColor = new int[16];
+
+	// Decimal triplet (0..999) → compact triplet, or -1 if it holds an absent color
+	private final int[] compact1000 = new int[1000];
+	// Compact triplet (0..k^3) → decimal triplet
+	private final int[] decimal1000;
+
+	public static StateIndex forNoBlue(boolean noBlue) {
+		return noBlue ? NO_BLUE : FULL;
+	}
+
+	/** Smaller closed palettes, for checking engines against each other quickly */
+	static StateIndex without(Color... excluded) {
+		return new StateIndex(excluded);
+	}
+
+	private StateIndex(Color... excluded) {
+		boolean[] present = new boolean[Color.N_COLORS];
+		Arrays.fill(present, true);
+		for (Color color : excluded) present[color.ordinal()] = false;
+		if (present[Color.C_WH.ordinal()] && !present[Color.C_GY.ordinal()]
+				|| present[Color.C_WH.ordinal()] && present[Color.C_RD.ordinal()] && !present[Color.C_BK.ordinal()]) {
+			throw new IllegalArgumentException("Palette is not closed under presses");
+		}
+
+		int k = 0;
+		colorRank = new int[Color.N_COLORS];
+		int[] ranks = new int[Color.N_COLORS];
+		for (int c = 0; c < Color.N_COLORS; c++) {
+			colorRank[c] = present[c] ? k : -1;
+			if (present[c]) ranks[k++] = c;
+		}
+		radix = k;
+		rankColor = Arrays.copyOf(ranks, k);
+		radix3 = k * k * k;
+		radix6 = radix3 * radix3;
+		size = radix6 * radix3;
+		identity = k == Color.N_COLORS;
+
+		for (int r = 0; r < k; r++) {
+			nextColor[rankColor[r]] = rankColor[(r + 1) % k];
+		}
+
+		decimal1000 = new int[radix3];
+		for (int i = 0; i < 1000; i++) {
+			int r0 = colorRank[i % 10], r1 = colorRank[i / 10 % 10], r2 = colorRank[i / 100];
+			if (r0 < 0 || r1 < 0 || r2 < 0) {
+				compact1000[i] = -1;
+			} else {
+				int compact = r0 + r1 * k + r2 * k * k;
+				compact1000[i] = compact;
+				decimal1000[compact] = i;
+			}
+		}
+	}
+
+	/** Number of indices, k^9 */
+	public int size() {
+		return size;
+	}
+
+	public int radix() {
+		return radix;
+	}
+
+	public boolean isIdentity() {
+		return identity;
+	}
+
+	/** Palette rank → color ordinal */
+	int[] rankColors() {
+		return rankColor.clone();
+	}
+
+	/** Color ordinal → palette rank, or -1 if absent */
+	int[] colorRanks() {
+		return colorRank.clone();
+	}
+
+	public boolean contains(Color color) {
+		return colorRank[color.ordinal()] >= 0;
+	}
+
+	/** Decimal state → index, or -1 if the state holds a color outside the palette */
+	public int toIndex(int state) {
+		if (identity) return state;
+		int lo = compact1000[state % 1000];
+		int mid = compact1000[state / 1000 % 1000];
+		int hi = compact1000[state / 1000000];
+		if ((lo | mid | hi) < 0) return -1;
+		return lo + mid * radix3 + hi * radix6;
+	}
+
+	/** In-place toIndex of the first count states, e.g. a block of successors */
+	public void toIndex(int[] states, int count) {
+		if (identity) return;
+		for (int i = 0; i < count; i++) {
+			states[i] = toIndex(states[i]);
+		}
+	}
+
+	/** Index → decimal state */
+	public int toState(int index) {
+		if (identity) return index;
+		return decimal1000[index % radix3]
+			+ decimal1000[index / radix3 % radix3] * 1000
+			+ decimal1000[index / radix6] * 1000000;
+	}
+
+	/** Index → packed tiles, see StateCodec */
+	public long pack(int index) {
+		return StateCodec.pack(toState(index));
+	}
+
+	/**
+	 * Packed tiles of index + 1, an odometer over the palette colors like StateCodec.next.
+	 * Lets the sequential scans walk the index space without any division.
+	 */
+	public long next(long packed) {
+		if (identity) return StateCodec.next(packed);
+		int last = rankColor[radix - 1];
+		int shift = 0;
+		// Each nibble at the last palette color rolls over to the first and carries into the next
+		while ((packed >>> shift & StateCodec.TILE_MASK) == last) {
+			packed = StateCodec.set(packed, shift >> 2, rankColor[0]);
+			shift += 4;
+		}
+		return StateCodec.set(packed, shift >> 2, nextColor[StateCodec.get(packed, shift >> 2)]);
+	}
+}
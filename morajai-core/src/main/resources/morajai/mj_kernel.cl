@@ -4,19 +4,20 @@ enum Color {
     C_GY, C_RD, C_GN, C_BK, C_WH, C_PI, C_PU, C_YE, C_BU, C_OR
 };
 
-void initFromState(int state, int* tileColors) {
+/* States are StateIndex positions: tile i contributes rank(color) * radix^i (decimal for the full palette) */
+void initFromState(int state, int radix, __constant const int* rankColor, int* tileColors) {
     for (int i = 0; i < 9; i++) {
-        tileColors[i] = state % 10;
-        state /= 10;
+        tileColors[i] = rankColor[state % radix];
+        state /= radix;
     }
 }
 
-inline int getState(int* tileColors) {
+inline int getState(int* tileColors, int radix, __constant const int* colorRank) {
     int s = 0;
     int multiplier = 1;
     for (int i = 0; i < 9; ++i) {
-        s += tileColors[i] * multiplier;
-        multiplier *= 10;
+        s += colorRank[tileColors[i]] * multiplier;
+        multiplier *= radix;
     }
     return s;
 }
@@ -179,29 +180,33 @@ __kernel void mj_solve(
     __global const uchar* reached,
     __global const uchar* current,
     __global uchar* next,
-    const int chunkSize
+    const int chunkSize,
+    const int numStates,
+    const int radix,
+    __constant const int* rankColor,
+    __constant const int* colorRank
 ) {
 
     int global_id = get_global_id(0);
-    int global_work_size = 1000000000/chunkSize;
+    int global_work_size = (numStates + chunkSize - 1)/chunkSize;
 
     int tileColors[9];
     int initTileColors[9];
     
     for (int i = 0; i < chunkSize; i++) {
         int state = global_id + i*global_work_size;
-        if (state >= 1000000000) break;
+        if (state >= numStates) break;
 
         if (isSet(reached, state) || isSet(current, state)) {
             continue;
         }
 
-        initFromState(state, initTileColors);
+        initFromState(state, radix, rankColor, initTileColors);
 
         for (int i = 0; i < 9; i++) {
             for (size_t j = 0; j < 9; j++) tileColors[j] = initTileColors[j];
             pressTile(i, tileColors);
-            int newState = getState(tileColors);
+            int newState = getState(tileColors, radix, colorRank);
 
             if (isSet(current, newState)) {
                 set(next, state);
@@ -0,0 +1,100 @@
+package io.chandler.morajai;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+class MJConcurrentBitSetTest {
+
+	private static final int THREADS = 4;
+	// Not a multiple of 64, so the last word is partial
+	private static final int SIZE = 10_000_019;
+
+	private static ExecutorService executor;
+
+	@BeforeAll
+	static void startExecutor() {
+		executor = Executors.newFixedThreadPool(THREADS);
+	}
+
+	@AfterAll
+	static void stopExecutor() {
+		executor.shutdown();
+	}
+
+	// Every thread sets an interleaved stride of the same words, the worst case for lost updates
+	private static MJConcurrentBitSet setEveryThird(BitSet expected) throws InterruptedException, ExecutionException {
+		MJConcurrentBitSet bits = new MJConcurrentBitSet(SIZE);
+		for (int i = 0; i < SIZE; i += 3) expected.set(i);
+		int stripes = 2 * THREADS;
+		List<Future<?>> futures = new ArrayList<>();
+		for (int t = 0; t < stripes; t++) {
+			int stripe = t;
+			futures.add(executor.submit(() -> {
+				for (int i = stripe * 3; i < SIZE; i += 3 * stripes) bits.set(i);
+			}));
+		}
+		for (Future<?> future : futures) future.get();
+		return bits;
+	}
+
+	@Test
+	void concurrentSetsKeepEveryBit() throws InterruptedException, ExecutionException {
+		BitSet expected = new BitSet(SIZE);
+		MJConcurrentBitSet bits = setEveryThird(expected);
+		for (int i = 0; i < SIZE; i++) {
+			assertEquals(expected.get(i), bits.get(i), "bit " + i);
+		}
+		assertEquals(expected.cardinality(), bits.cardinality(executor));
+	}
+
+	// Ranges against BitSet at unaligned ends
+	@Test
+	void rangesMatchBitSet() throws InterruptedException, ExecutionException {
+		BitSet expected = new BitSet(SIZE);
+		MJConcurrentBitSet bits = setEveryThird(expected);
+		Random random = new Random(1);
+		for (int r = 0; r < 1000; r++) {
+			int from = random.nextInt(SIZE), to = Math.min(SIZE, from + random.nextInt(1000));
+			if (random.nextBoolean()) {
+				int before = expected.cardinality();
+				int added = bits.setRange(from, to);
+				expected.set(from, to);
+				assertEquals(expected.cardinality() - before, added, "setRange " + from + " " + to);
+			} else {
+				bits.clearRange(from, to);
+				expected.clear(from, to);
+			}
+			assertEquals(expected.get(from, to).cardinality(), bits.cardinality(from, to), "range " + from + " " + to);
+		}
+
+		long[] listed = new long[1];
+		bits.forEachSetBit(0, SIZE, i -> {
+			assertTrue(expected.get(i), "listed " + i);
+			listed[0]++;
+		});
+		assertEquals(expected.cardinality(), listed[0]);
+
+		// Each bit listed once, and only set bits
+		MJConcurrentBitSet seen = new MJConcurrentBitSet(SIZE);
+		AtomicLong wrong = new AtomicLong();
+		bits.forEachSetBit(executor, i -> {
+			if (!expected.get(i) || !seen.set(i)) wrong.incrementAndGet();
+		});
+		assertEquals(0, wrong.get());
+		assertEquals(expected.cardinality(), seen.cardinality(executor));
+	}
+}
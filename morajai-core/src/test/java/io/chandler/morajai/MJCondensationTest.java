@@ -0,0 +1,155 @@
+package io.chandler.morajai;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * MJCondensation.components against Kosaraju on small random graphs with 9 successors per node.
+ * Edges mostly stay near their source, so the graphs break into many components of mixed size.
+ */
+class MJCondensationTest {
+
+	private static final int DEGREE = 9;
+
+	@ParameterizedTest
+	@ValueSource(ints = {1, 2, 3, 4, 5, 6, 7, 8})
+	void componentsMatchKosaraju(int seed) throws IOException {
+		Random random = new Random(seed);
+		for (int size : new int[] {1, 2, 17, 300, 2000}) {
+			// Chance of a long edge, in 1/1000
+			for (int far : new int[] {0, 2, 20, 1000}) {
+				int[] edges = new int[size * DEGREE];
+				for (int i = 0; i < edges.length; i++) {
+					int v = i / DEGREE;
+					if (random.nextInt(1000) < far) {
+						edges[i] = random.nextInt(size);
+					} else {
+						edges[i] = Math.floorMod(v + random.nextInt(7) - 4, size);
+					}
+				}
+				checkCondensation(size, edges);
+			}
+		}
+	}
+
+	private static void checkCondensation(int size, int[] edges) throws IOException {
+		ByteArrayOutputStream dag = new ByteArrayOutputStream();
+		int[] components = MJCondensation.components(size, (v, tile) -> edges[v * DEGREE + tile], dag);
+		int[] expected = kosaraju(size, edges);
+
+		// Same partition, with ids 0..n-1
+		int numComponents = 0;
+		for (int v = 0; v < size; v++) numComponents = Math.max(numComponents, components[v] + 1);
+		int[] mapping = new int[numComponents];
+		Arrays.fill(mapping, -1);
+		for (int v = 0; v < size; v++) {
+			int c = components[v];
+			if (mapping[c] == -1) mapping[c] = expected[v];
+			assertEquals(mapping[c], expected[v], "component of " + v);
+		}
+		assertEquals(Arrays.stream(expected).max().getAsInt() + 1, numComponents, "components");
+
+		// Out-edges of each component in id order, every one to a smaller id
+		List<TreeSet<Integer>> successors = new ArrayList<>();
+		for (int c = 0; c < numComponents; c++) successors.add(new TreeSet<>());
+		for (int i = 0; i < edges.length; i++) {
+			int from = components[i / DEGREE];
+			int to = components[edges[i]];
+			if (from != to) successors.get(from).add(to);
+		}
+		InputStream in = new ByteArrayInputStream(dag.toByteArray());
+		for (int c = 0; c < numComponents; c++) {
+			int degree = readVarint(in);
+			int[] listed = new int[degree];
+			int successor = 0;
+			for (int e = 0; e < degree; e++) {
+				successor += readVarint(in);
+				assertTrue(successor < c, "edge " + c + " -> " + successor);
+				listed[e] = successor;
+			}
+			assertEquals(successors.get(c).toString(), Arrays.toString(listed), "edges of " + c);
+		}
+		assertEquals(-1, in.read(), "trailing DAG bytes");
+	}
+
+	// Component numbering of each node, ids in order of discovery on the transposed graph
+	private static int[] kosaraju(int size, int[] edges) {
+		int[] order = new int[size];
+		int finished = 0;
+		boolean[] visited = new boolean[size];
+		int[] stack = new int[size];
+		int[] next = new int[size];
+		for (int start = 0; start < size; start++) {
+			if (visited[start]) continue;
+			int depth = 0;
+			stack[depth++] = start;
+			visited[start] = true;
+			while (depth > 0) {
+				int v = stack[depth - 1];
+				if (next[v] < DEGREE) {
+					int w = edges[v * DEGREE + next[v]++];
+					if (!visited[w]) {
+						visited[w] = true;
+						stack[depth++] = w;
+					}
+				} else {
+					order[finished++] = v;
+					depth--;
+				}
+			}
+		}
+
+		int[] inDegree = new int[size + 1];
+		for (int w : edges) inDegree[w + 1]++;
+		for (int v = 0; v < size; v++) inDegree[v + 1] += inDegree[v];
+		int[] reverse = new int[edges.length];
+		int[] fill = Arrays.copyOf(inDegree, size);
+		for (int i = 0; i < edges.length; i++) reverse[fill[edges[i]]++] = i / DEGREE;
+
+		int[] component = new int[size];
+		Arrays.fill(component, -1);
+		int numComponents = 0;
+		for (int i = size - 1; i >= 0; i--) {
+			int root = order[i];
+			if (component[root] != -1) continue;
+			int depth = 0;
+			stack[depth++] = root;
+			component[root] = numComponents;
+			while (depth > 0) {
+				int v = stack[--depth];
+				for (int e = inDegree[v]; e < inDegree[v + 1]; e++) {
+					int u = reverse[e];
+					if (component[u] == -1) {
+						component[u] = numComponents;
+						stack[depth++] = u;
+					}
+				}
+			}
+			numComponents++;
+		}
+		return component;
+	}
+
+	private static int readVarint(InputStream in) throws IOException {
+		int value = 0;
+		for (int shift = 0; ; shift += 7) {
+			int b = in.read();
+			assertTrue(b >= 0, "truncated DAG");
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) return value;
+		}
+	}
+}
@@ -0,0 +1,53 @@
+package io.chandler.morajai;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import io.chandler.morajai.MJAnalysis.DepthTracker;
+import io.chandler.morajai.MoraJaiBox.Color;
+
+class MJFrontierCommitTest {
+
+	private static final int THREADS = 4;
+	private static final StateIndex SMALL = StateIndex.without(Color.C_BU, Color.C_OR, Color.C_PU, Color.C_PI);
+
+	private static ExecutorService executor;
+
+	@BeforeAll
+	static void startExecutor() {
+		executor = Executors.newFixedThreadPool(THREADS);
+	}
+
+	@AfterAll
+	static void stopExecutor() {
+		executor.shutdown();
+	}
+
+	@ParameterizedTest
+	@ValueSource(doubles = {0, 1e-6, 1e-3, 0.1, 0.5, 1})
+	void matchesSerialCommit(double density) {
+		int words = (SMALL.size() + 63) >>> 6;
+		long[][] parallel = MJFrontierCommit.randomLevel(new Random(1), words, density, SMALL.size());
+		long[][] serial = {parallel[0].clone(), parallel[1].clone(), parallel[2].clone()};
+		DepthTracker parallelDepths = new DepthTracker(SMALL);
+		DepthTracker serialDepths = new DepthTracker(SMALL);
+
+		int count = MJFrontierCommit.commit(executor, THREADS, parallel[0], parallel[1], parallel[2], parallelDepths, 7);
+		int expected = MJFrontierCommit.commitSerial(serial[0], serial[1], serial[2], serialDepths, 7);
+
+		assertEquals(expected, count);
+		assertArrayEquals(serial[0], parallel[0], "reached");
+		assertArrayEquals(serial[1], parallel[1], "current");
+		assertArrayEquals(serial[2], parallel[2], "next");
+		assertArrayEquals(serialDepths.depths, parallelDepths.depths, "depths");
+	}
+}
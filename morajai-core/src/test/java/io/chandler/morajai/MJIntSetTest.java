@@ -0,0 +1,123 @@
+package io.chandler.morajai;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class MJIntSetTest {
+
+	private static final int THREADS = 4;
+	private static final int SIZE = 20_000_000;
+
+	private static ExecutorService executor;
+
+	@BeforeAll
+	static void startExecutor() {
+		executor = Executors.newFixedThreadPool(THREADS);
+	}
+
+	@AfterAll
+	static void stopExecutor() {
+		executor.shutdown();
+	}
+
+	// Each pattern against the next, so every pair of container kinds meets in or and andNot
+	@ParameterizedTest
+	@ValueSource(ints = {0, 1, 2, 3})
+	void matchesBitSet(int pattern) {
+		Random random = new Random(pattern);
+		BitSet expectedA = randomSet(random, pattern);
+		BitSet expectedB = randomSet(random, (pattern + 1) % 4);
+		MJIntSet a = new MJIntSet(SIZE);
+		expectedA.stream().forEach(a::add);
+		long[] words = Arrays.copyOf(expectedB.toLongArray(), (SIZE + 63) >>> 6);
+		MJIntSet b = MJIntSet.fromWords(executor, words, SIZE);
+
+		check(a, expectedA, "add");
+		check(b, expectedB, "fromWords");
+
+		MJIntSet viaWords = new MJIntSet(SIZE);
+		viaWords.addWords(0, words, 0, words.length);
+		check(viaWords, expectedB, "addWords");
+
+		MJIntSet union = MJIntSet.fromWords(executor, Arrays.copyOf(expectedA.toLongArray(), words.length), SIZE);
+		union.or(b);
+		BitSet expectedUnion = (BitSet) expectedA.clone();
+		expectedUnion.or(expectedB);
+		check(union, expectedUnion, "or");
+
+		a.andNot(b);
+		expectedA.andNot(expectedB);
+		check(a, expectedA, "andNot");
+
+		AtomicLong sum = new AtomicLong();
+		b.forEach(executor, sum::addAndGet);
+		assertEquals(expectedB.stream().asLongStream().sum(), sum.get(), "parallel forEach");
+
+		for (int key = 0; key < b.blockCount(); key++) {
+			int block = key;
+			int base = key << MJIntSet.BLOCK_BITS;
+			BitSet expectedBlock = expectedB.get(base, Math.min(SIZE, base + (1 << MJIntSet.BLOCK_BITS)));
+			assertEquals(expectedBlock.cardinality(), b.blockCardinality(key), "block " + key);
+			long[] listed = new long[1];
+			b.forEachInBlock(key, value -> {
+				assertTrue(expectedBlock.get(value - base), "block " + block + " listed " + value);
+				listed[0]++;
+			});
+			assertEquals(expectedBlock.cardinality(), listed[0], "block " + key + " listed");
+		}
+	}
+
+	// 0 sparse, 1 dense, 2 clustered runs, 3 a mix per block
+	private static BitSet randomSet(Random random, int pattern) {
+		BitSet set = new BitSet(SIZE);
+		switch (pattern) {
+			case 0:
+				for (int i = 0; i < SIZE / 1000; i++) set.set(random.nextInt(SIZE));
+				break;
+			case 1:
+				for (int i = 0; i < SIZE / 2; i++) set.set(random.nextInt(SIZE));
+				break;
+			case 2:
+				for (int i = 0; i < 2000; i++) {
+					int start = random.nextInt(SIZE);
+					set.set(start, Math.min(SIZE, start + random.nextInt(100000)));
+				}
+				break;
+			default:
+				for (int block = 0; block < SIZE >>> MJIntSet.BLOCK_BITS; block++) {
+					int base = block << MJIntSet.BLOCK_BITS;
+					int kind = random.nextInt(4);
+					if (kind == 1) for (int i = 0; i < 100; i++) set.set(base + random.nextInt(1 << MJIntSet.BLOCK_BITS));
+					if (kind == 2) for (int i = 0; i < 40000; i++) set.set(base + random.nextInt(1 << MJIntSet.BLOCK_BITS));
+					if (kind == 3) set.set(base + random.nextInt(1000), base + 30000 + random.nextInt(1000));
+				}
+		}
+		return set;
+	}
+
+	private static void check(MJIntSet set, BitSet expected, String what) {
+		assertEquals(expected.cardinality(), set.cardinality(), what + ": cardinality");
+		for (int i = 0; i < SIZE; i++) {
+			if (set.contains(i) != expected.get(i)) fail(what + ": " + i + " is " + set.contains(i));
+		}
+		int[] next = {expected.nextSetBit(0)};
+		set.forEach(value -> {
+			assertEquals(next[0], value, what + ": listed");
+			next[0] = expected.nextSetBit(value + 1);
+		});
+		assertEquals(-1, next[0], what + ": not listed");
+	}
+}
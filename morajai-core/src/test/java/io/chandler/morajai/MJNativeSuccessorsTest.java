@@ -0,0 +1,86 @@
+package io.chandler.morajai;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Runs with the native profile (mvn -Pnative test), which builds libmorajai.so and enables
+ * jdk.incubator.foreign for the tests; skipped otherwise.
+ */
+class MJNativeSuccessorsTest {
+
+	private static MJBatchSuccessors engine;
+
+	@BeforeAll
+	static void loadEngine() {
+		assumeTrue(ModuleLayer.boot().findModule("jdk.incubator.foreign").isPresent(), "jdk.incubator.foreign not enabled");
+		try {
+			engine = new MJNativeSuccessors();
+		} catch (LinkageError e) {
+			assumeTrue(false, "libmorajai not available: " + e);
+		}
+	}
+
+	private static void assertMatchesReference(int[] states, int count) {
+		int[] out = new int[states.length * 9];
+		// Past count must be left alone
+		Arrays.fill(out, -1);
+		engine.successors(states, count, out);
+
+		int[] expected = new int[9];
+		for (int i = 0; i < count; i++) {
+			MoraJaiBox.successors(states[i], expected);
+			for (int tile = 0; tile < 9; tile++) {
+				assertEquals(expected[tile], out[i * 9 + tile], "state " + states[i] + " tile " + tile);
+			}
+		}
+		for (int i = count * 9; i < out.length; i++) {
+			assertEquals(-1, out[i], "written past count at " + i);
+		}
+	}
+
+	@Test
+	void randomStatesMatchReference() {
+		Random random = new Random(0);
+		// Growing batches, so the off-heap blocks are reallocated along the way
+		for (int count : new int[] {1, 7, 1024, 1025, 100000}) {
+			int[] states = new int[count + 5];
+			for (int i = 0; i < states.length; i++) {
+				states[i] = random.nextInt(1000000000);
+			}
+			assertMatchesReference(states, count);
+		}
+	}
+
+	@Test
+	void edgeStatesMatchReference() {
+		int[] states = new int[10 + 10 * 9 * 10];
+		int n = 0;
+		// Uniform boards, including 0 and 999999999
+		for (int color = 0; color < 10; color++) {
+			states[n++] = color * 111111111;
+		}
+		// Each color on each tile of each uniform board
+		for (int color = 0; color < 10; color++) {
+			for (int tile = 0; tile < 9; tile++) {
+				for (int background = 0; background < 10; background++) {
+					int state = background * 111111111;
+					state += (color - background) * MoraJaiBox.POW10[tile];
+					states[n++] = state;
+				}
+			}
+		}
+		assertMatchesReference(states, n);
+	}
+
+	@Test
+	void emptyBatchWritesNothing() {
+		assertMatchesReference(new int[] {0, 999999999}, 0);
+	}
+}
@@ -0,0 +1,69 @@
+package io.chandler.morajai;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import io.chandler.morajai.MoraJaiBox.Color;
+
+/**
+ * MoraJaiBox.predecessors against pressTile.  Every listed (predecessor, tile) must press into the
+ * state, with no repeats per tile.  On a palette closed under presses the lists must also hold 9
+ * entries per state in total; as every press has exactly one result, that means nothing is missing.
+ */
+class MJTopDownTest {
+
+	private static final Color[] TARGETS = {Color.C_GY, Color.C_GY, Color.C_GY, Color.C_GY};
+
+	// Removed colors; each leaves 6^9 states closed under presses
+	@ParameterizedTest
+	@ValueSource(strings = {"C_BU C_OR C_PU C_PI", "C_RD C_GN C_BK C_YE", "C_GN C_PI C_PU C_YE"})
+	void predecessorsCompleteOnSmallPalette(String removed) {
+		StateIndex small = StateIndex.without(Arrays.stream(removed.split(" ")).map(Color::valueOf).toArray(Color[]::new));
+		MoraJaiBox box = new MoraJaiBox();
+		int[] predecessors = new int[MoraJaiBox.MAX_PREDECESSORS];
+		long listed = 0;
+		for (int i = 0; i < small.size(); i++) {
+			int state = small.toState(i);
+			for (int tile = 0; tile < 9; tile++) {
+				int count = MoraJaiBox.predecessors(state, small.pack(i), tile, predecessors, 0);
+				checkPresses(box, state, tile, predecessors, count);
+				for (int p = 0; p < count; p++) {
+					if (small.toIndex(predecessors[p]) >= 0) listed++;
+				}
+			}
+		}
+		assertEquals(9L * small.size(), listed, "predecessors listed");
+	}
+
+	@Test
+	void predecessorsPressIntoSampledStates() {
+		Random random = new Random(1);
+		MoraJaiBox box = new MoraJaiBox();
+		int[] predecessors = new int[MoraJaiBox.MAX_PREDECESSORS];
+		for (int n = 0; n < 1000000; n++) {
+			int state = random.nextInt(1000000000);
+			for (int tile = 0; tile < 9; tile++) {
+				int count = MoraJaiBox.predecessors(state, StateCodec.pack(state), tile, predecessors, 0);
+				checkPresses(box, state, tile, predecessors, count);
+			}
+		}
+	}
+
+	private static void checkPresses(MoraJaiBox box, int state, int tile, int[] predecessors, int count) {
+		for (int p = 0; p < count; p++) {
+			for (int q = 0; q < p; q++) {
+				assertNotEquals(predecessors[q], predecessors[p], "repeated predecessor of " + state);
+			}
+			box.initFromState(TARGETS, predecessors[p]);
+			box.pressTile(tile);
+			assertEquals(state, box.getState(), "tile " + tile + " of " + predecessors[p]);
+		}
+	}
+}
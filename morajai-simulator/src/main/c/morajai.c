@@ -1,11 +1,17 @@
 #include "morajai.h"
 
+// Storage class for the box state; the native batch engine in morajai-core
+// builds with -DMORAJAI_STATE=_Thread_local so each JVM worker gets its own box
+#ifndef MORAJAI_STATE
+#define MORAJAI_STATE
+#endif
+
 // State
-bool morajai_init = false;
-color_t morajai_target_colors[4];
-bool morajai_outer_state[4];
-color_t morajai_init_tile_colors[9];
-color_t morajai_tile_colors[9];
+MORAJAI_STATE bool morajai_init = false;
+MORAJAI_STATE color_t morajai_target_colors[4];
+MORAJAI_STATE bool morajai_outer_state[4];
+MORAJAI_STATE color_t morajai_init_tile_colors[9];
+MORAJAI_STATE color_t morajai_tile_colors[9];
 
 void reset(void) {
 	for (int i = 0; i < 9; i++) {
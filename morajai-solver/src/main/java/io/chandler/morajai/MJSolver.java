@@ -68,6 +68,7 @@ public class MJSolver {
 
         // BFS data structures
         Queue<SearchNode> queue = new LinkedList<>();
+        int[] successors = new int[9];
         
         // Add initial state
         int initialState = box.getState();
@@ -87,15 +88,12 @@ public class MJSolver {
                 }
             }
             
+            // All 9 presses at once
+            MoraJaiBox.successors(current.state, successors);
+
             // Try pressing each tile
             for (int tile = 0; tile < 9; tile++) {
-                // Create new box for this move
-                MoraJaiBox newBox = new MoraJaiBox();
-                newBox.initFromState(targetColors, current.state);
-                
-                // Press the tile
-                newBox.pressTile(tile);
-                int newState = newBox.getState();
+                int newState = successors[tile];
                 
                 // Skip if we've seen this state before
                 if (visited.contains(newState)) {
@@ -103,7 +101,8 @@ public class MJSolver {
                 }
                 
                 // Check if solved
-                if (newBox.areInnerMatchingOuter()) {
+                box.initFromState(targetColors, newState);
+                if (box.areInnerMatchingOuter()) {
                     String solution = current.moves;
                     solution += tile;
                     // Convert to list